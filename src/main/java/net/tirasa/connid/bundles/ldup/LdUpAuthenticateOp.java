@@ -28,24 +28,18 @@ import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.spi.operations.AuthenticateOp;
 import org.identityconnectors.framework.spi.operations.ResolveUsernameOp;
-import org.ldaptive.ConnectionFactory;
 import org.ldaptive.Credential;
 import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
-import org.ldaptive.SearchOperation;
-import org.ldaptive.SearchRequest;
-import org.ldaptive.SearchResponse;
 import org.ldaptive.SingleConnectionFactory;
 import org.ldaptive.auth.AuthenticationRequest;
 import org.ldaptive.auth.AuthenticationResponse;
 import org.ldaptive.auth.Authenticator;
-import org.ldaptive.auth.SearchDnResolver;
+import org.ldaptive.auth.DnResolver;
 import org.ldaptive.auth.SimpleBindAuthenticationHandler;
-import org.ldaptive.auth.User;
 import org.ldaptive.control.PasswordExpiredControl;
 import org.ldaptive.control.PasswordPolicyControl;
 import org.ldaptive.control.ResponseControl;
-import org.ldaptive.handler.ResultPredicate;
 
 public class LdUpAuthenticateOp implements AuthenticateOp, ResolveUsernameOp {
 
@@ -55,13 +49,8 @@ public class LdUpAuthenticateOp implements AuthenticateOp, ResolveUsernameOp {
         this.ldUpUtils = ldUpUtils;
     }
 
-    protected SearchDnResolver searchDnResolver(final ConnectionFactory factory) {
-        return SearchDnResolver.builder().
-                factory(factory).
-                dn(ldUpUtils.getConfiguration().getBaseDn()).
-                subtreeSearch(true).
-                filter("(" + ldUpUtils.getConfiguration().getUidAttribute() + "={user})").
-                build();
+    protected DnResolver dnResolver() {
+        return user -> ldUpUtils.resolveDn(ldUpUtils.getConfiguration().getUidAttribute(), user.getIdentifier());
     }
 
     @Override
@@ -76,7 +65,7 @@ public class LdUpAuthenticateOp implements AuthenticateOp, ResolveUsernameOp {
             scf.initialize();
 
             Authenticator authenticator = new Authenticator(
-                    searchDnResolver(scf),
+                    dnResolver(),
                     new SimpleBindAuthenticationHandler(scf));
             AuthenticationResponse response = authenticator.authenticate(new AuthenticationRequest(
                     username,
@@ -112,22 +101,15 @@ public class LdUpAuthenticateOp implements AuthenticateOp, ResolveUsernameOp {
             final String username,
             final OperationOptions options) {
 
+        String uidAttribute = ldUpUtils.getConfiguration().getUidAttribute();
         try {
-            return Optional.ofNullable(searchDnResolver(ldUpUtils.getConnectionFactory()).resolve(new User(username))).
-                    map(dn -> {
-                        try {
-                            SearchResponse response = SearchOperation.builder().
-                                    factory(ldUpUtils.getConnectionFactory()).
-                                    throwIf(ResultPredicate.NOT_SUCCESS).
-                                    build().execute(SearchRequest.objectScopeSearchRequest(
-                                            dn, new String[] { ldUpUtils.getConfiguration().getUidAttribute() }));
-                            return new Uid(response.getEntry().
-                                    getAttribute(ldUpUtils.getConfiguration().getUidAttribute()).getStringValue());
-                        } catch (LdapException e) {
-                            throw new ConnectorException("While reading "
-                                    + ldUpUtils.getConfiguration().getUidAttribute() + " from " + dn, e);
-                        }
-                    }).
+            return Optional.ofNullable(ldUpUtils.findEntry(
+                    Optional.ofNullable(objectClass).orElse(ObjectClass.ACCOUNT),
+                    uidAttribute,
+                    username,
+                    uidAttribute)).
+                    map(entry -> entry.getAttribute(uidAttribute)).
+                    map(attr -> new Uid(attr.getStringValue())).
                     orElseThrow(() -> new InvalidCredentialException("Cannot resolve username " + username));
         } catch (LdapException e) {
             throw new ConnectorException("While resolving username " + username, e);
@@ -61,6 +61,42 @@ public class LdUpConfiguration extends AbstractConfiguration {
 
     private boolean legacyCompatibilityMode = false;
 
+    private int pageSize = 500;
+
+    private int pageLookahead = 0;
+
+    private int groupBatchSize = 100;
+
+    private boolean groupIndex = false;
+
+    private boolean memberOfMode = false;
+
+    private int filterCacheSize = 1000;
+
+    private int scanParallelism = 0;
+
+    private String scanPartitionAttribute;
+
+    private String[] scanPartitionPrefixes = "0123456789abcdefghijklmnopqrstuvwxyz".split("");
+
+    private String[] additionalBaseDns = {};
+
+    private String[] excludedDns = {};
+
+    private int searchTimeLimitSeconds = 0;
+
+    private int searchSizeLimit = 0;
+
+    private int lookupTimeLimitSeconds = 0;
+
+    private int dnCacheSize = 0;
+
+    private int dnCacheTtlSeconds = 300;
+
+    private boolean dnCacheSyncRepl = false;
+
+    private int lazyBinaryThreshold = 0;
+
     @ConfigurationProperty(displayMessageKey = "url.display",
             helpMessageKey = "url.help", required = true, order = 1)
     public String getUrl() {
@@ -241,6 +277,186 @@ public class LdUpConfiguration extends AbstractConfiguration {
         this.legacyCompatibilityMode = legacyCompatibilityMode;
     }
 
+    @ConfigurationProperty(displayMessageKey = "pageSize.display",
+            helpMessageKey = "pageSize.help", order = 19)
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(final int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "pageLookahead.display",
+            helpMessageKey = "pageLookahead.help", order = 20)
+    public int getPageLookahead() {
+        return pageLookahead;
+    }
+
+    public void setPageLookahead(final int pageLookahead) {
+        this.pageLookahead = pageLookahead;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "groupBatchSize.display",
+            helpMessageKey = "groupBatchSize.help", order = 21)
+    public int getGroupBatchSize() {
+        return groupBatchSize;
+    }
+
+    public void setGroupBatchSize(final int groupBatchSize) {
+        this.groupBatchSize = groupBatchSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "groupIndex.display",
+            helpMessageKey = "groupIndex.help", order = 22)
+    public boolean isGroupIndex() {
+        return groupIndex;
+    }
+
+    public void setGroupIndex(final boolean groupIndex) {
+        this.groupIndex = groupIndex;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "memberOfMode.display",
+            helpMessageKey = "memberOfMode.help", order = 23)
+    public boolean isMemberOfMode() {
+        return memberOfMode;
+    }
+
+    public void setMemberOfMode(final boolean memberOfMode) {
+        this.memberOfMode = memberOfMode;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "filterCacheSize.display",
+            helpMessageKey = "filterCacheSize.help", order = 24)
+    public int getFilterCacheSize() {
+        return filterCacheSize;
+    }
+
+    public void setFilterCacheSize(final int filterCacheSize) {
+        this.filterCacheSize = filterCacheSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "scanParallelism.display",
+            helpMessageKey = "scanParallelism.help", order = 25)
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    public void setScanParallelism(final int scanParallelism) {
+        this.scanParallelism = scanParallelism;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "scanPartitionAttribute.display",
+            helpMessageKey = "scanPartitionAttribute.help", order = 26)
+    public String getScanPartitionAttribute() {
+        return scanPartitionAttribute;
+    }
+
+    public void setScanPartitionAttribute(final String scanPartitionAttribute) {
+        this.scanPartitionAttribute = scanPartitionAttribute;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "scanPartitionPrefixes.display",
+            helpMessageKey = "scanPartitionPrefixes.help", order = 27)
+    public String[] getScanPartitionPrefixes() {
+        return scanPartitionPrefixes.clone();
+    }
+
+    public void setScanPartitionPrefixes(final String... scanPartitionPrefixes) {
+        this.scanPartitionPrefixes = scanPartitionPrefixes == null ? new String[0] : scanPartitionPrefixes.clone();
+    }
+
+    @ConfigurationProperty(displayMessageKey = "additionalBaseDns.display",
+            helpMessageKey = "additionalBaseDns.help", order = 28)
+    public String[] getAdditionalBaseDns() {
+        return additionalBaseDns.clone();
+    }
+
+    public void setAdditionalBaseDns(final String... additionalBaseDns) {
+        this.additionalBaseDns = additionalBaseDns == null ? new String[0] : additionalBaseDns.clone();
+    }
+
+    @ConfigurationProperty(displayMessageKey = "excludedDns.display",
+            helpMessageKey = "excludedDns.help", order = 29)
+    public String[] getExcludedDns() {
+        return excludedDns.clone();
+    }
+
+    public void setExcludedDns(final String... excludedDns) {
+        this.excludedDns = excludedDns == null ? new String[0] : excludedDns.clone();
+    }
+
+    @ConfigurationProperty(displayMessageKey = "searchTimeLimitSeconds.display",
+            helpMessageKey = "searchTimeLimitSeconds.help", order = 30)
+    public int getSearchTimeLimitSeconds() {
+        return searchTimeLimitSeconds;
+    }
+
+    public void setSearchTimeLimitSeconds(final int searchTimeLimitSeconds) {
+        this.searchTimeLimitSeconds = searchTimeLimitSeconds;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "searchSizeLimit.display",
+            helpMessageKey = "searchSizeLimit.help", order = 31)
+    public int getSearchSizeLimit() {
+        return searchSizeLimit;
+    }
+
+    public void setSearchSizeLimit(final int searchSizeLimit) {
+        this.searchSizeLimit = searchSizeLimit;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "lookupTimeLimitSeconds.display",
+            helpMessageKey = "lookupTimeLimitSeconds.help", order = 32)
+    public int getLookupTimeLimitSeconds() {
+        return lookupTimeLimitSeconds;
+    }
+
+    public void setLookupTimeLimitSeconds(final int lookupTimeLimitSeconds) {
+        this.lookupTimeLimitSeconds = lookupTimeLimitSeconds;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "dnCacheSize.display",
+            helpMessageKey = "dnCacheSize.help", order = 33)
+    public int getDnCacheSize() {
+        return dnCacheSize;
+    }
+
+    public void setDnCacheSize(final int dnCacheSize) {
+        this.dnCacheSize = dnCacheSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "dnCacheTtlSeconds.display",
+            helpMessageKey = "dnCacheTtlSeconds.help", order = 34)
+    public int getDnCacheTtlSeconds() {
+        return dnCacheTtlSeconds;
+    }
+
+    public void setDnCacheTtlSeconds(final int dnCacheTtlSeconds) {
+        this.dnCacheTtlSeconds = dnCacheTtlSeconds;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "dnCacheSyncRepl.display",
+            helpMessageKey = "dnCacheSyncRepl.help", order = 35)
+    public boolean isDnCacheSyncRepl() {
+        return dnCacheSyncRepl;
+    }
+
+    public void setDnCacheSyncRepl(final boolean dnCacheSyncRepl) {
+        this.dnCacheSyncRepl = dnCacheSyncRepl;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "lazyBinaryThreshold.display",
+            helpMessageKey = "lazyBinaryThreshold.help", order = 36)
+    public int getLazyBinaryThreshold() {
+        return lazyBinaryThreshold;
+    }
+
+    public void setLazyBinaryThreshold(final int lazyBinaryThreshold) {
+        this.lazyBinaryThreshold = lazyBinaryThreshold;
+    }
+
     @Override
     public void validate() {
         if (StringUtil.isBlank(url)) {
@@ -253,6 +469,61 @@ public class LdUpConfiguration extends AbstractConfiguration {
         if (responseTimeoutSeconds < 0) {
             throw new ConfigurationException("Negative responseTimeoutSeconds");
         }
+        if (pageSize <= 0) {
+            throw new ConfigurationException("Non-positive pageSize");
+        }
+        if (pageLookahead < 0 || pageLookahead > 2) {
+            throw new ConfigurationException("pageLookahead must be between 0 and 2");
+        }
+        if (groupBatchSize < 0) {
+            throw new ConfigurationException("Negative groupBatchSize");
+        }
+        if (filterCacheSize < 0) {
+            throw new ConfigurationException("Negative filterCacheSize");
+        }
+        if (scanParallelism < 0) {
+            throw new ConfigurationException("Negative scanParallelism");
+        }
+        if (StringUtil.isNotBlank(scanPartitionAttribute) && scanPartitionPrefixes.length == 0) {
+            throw new ConfigurationException("Missing scan partition prefixes");
+        }
+        for (String scanPartitionPrefix : scanPartitionPrefixes) {
+            if (StringUtil.isBlank(scanPartitionPrefix)) {
+                throw new ConfigurationException("Blank scan partition prefix");
+            }
+        }
+        for (int i = 0; i < scanPartitionPrefixes.length; i++) {
+            // partitions must be disjoint, whatever the case sensitivity of the scan partition attribute
+            for (int j = 0; j < scanPartitionPrefixes.length; j++) {
+                if (i != j && scanPartitionPrefixes[i].regionMatches(
+                        true, 0, scanPartitionPrefixes[j], 0, scanPartitionPrefixes[j].length())) {
+
+                    throw new ConfigurationException("Scan partition prefix " + scanPartitionPrefixes[i]
+                            + " overlaps " + scanPartitionPrefixes[j]);
+                }
+            }
+        }
+        if (searchTimeLimitSeconds < 0) {
+            throw new ConfigurationException("Negative searchTimeLimitSeconds");
+        }
+        if (searchSizeLimit < 0) {
+            throw new ConfigurationException("Negative searchSizeLimit");
+        }
+        if (lookupTimeLimitSeconds < 0) {
+            throw new ConfigurationException("Negative lookupTimeLimitSeconds");
+        }
+
+        if (dnCacheSize < 0) {
+            throw new ConfigurationException("Negative dnCacheSize");
+        }
+
+        if (dnCacheTtlSeconds <= 0) {
+            throw new ConfigurationException("Non-positive dnCacheTtlSeconds");
+        }
+
+        if (lazyBinaryThreshold < 0) {
+            throw new ConfigurationException("Negative lazyBinaryThreshold");
+        }
 
         if ((StringUtil.isBlank(bindDn) && bindPassword != null)
                 || (StringUtil.isNotBlank(bindDn) && bindPassword == null)) {
@@ -263,5 +534,15 @@ public class LdUpConfiguration extends AbstractConfiguration {
         if (StringUtil.isBlank(baseDn)) {
             throw new ConfigurationException("Missing base DN");
         }
+        for (String additionalBaseDn : additionalBaseDns) {
+            if (StringUtil.isBlank(additionalBaseDn)) {
+                throw new ConfigurationException("Blank additional base DN");
+            }
+        }
+        for (String excludedDn : excludedDns) {
+            if (StringUtil.isBlank(excludedDn)) {
+                throw new ConfigurationException("Blank excluded DN");
+            }
+        }
     }
 }
@@ -94,7 +94,7 @@ public class LdUpConnector
         ldUpUtils = new LdUpUtils((LdUpConfiguration) configuration);
         ldUpUtils.getConfiguration().validate();
 
-        ldUpSchema = new LdUpSchemaOp(ldUpUtils);
+        ldUpSchema = ldUpUtils.getSchemaOp();
         ldUpAuthenticateOp = new LdUpAuthenticateOp(ldUpUtils);
         ldUpCreateOp = new LdUpCreateOp(ldUpUtils);
         ldUpUpdateOp = new LdUpUpdateOp(ldUpUtils);
@@ -124,13 +124,8 @@ public class LdUpConnector
 
     @Override
     public void dispose() {
-        if (ldUpUtils.getConnectionFactory().isInitialized()) {
-            try {
-                ldUpUtils.getConnectionFactory().close();
-            } catch (Exception e) {
-                LOG.error(e, "While closing the connection factory");
-            }
-        }
+        ldUpSearchOp.getFilterCache().ifPresent(filterCache -> LOG.ok("Disposing {0}", filterCache));
+        ldUpUtils.dispose();
     }
 
     @Override
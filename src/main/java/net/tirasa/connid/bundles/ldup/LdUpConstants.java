@@ -27,10 +27,51 @@ public final class LdUpConstants {
 
     public static final String LEGACY_GROUPS_ATTR_NAME = "ldapGroups";
 
+    public static final String MEMBER_OF_ATTR_NAME = "memberOf";
+
     public static final String SYNCREPL_COOKIE_NAME = AttributeUtil.createSpecialName("SYNCREPL_COOKIE");
 
+    /**
+     * Names of the binary attributes whose values were replaced by this reference, for exceeding the configured lazy
+     * binary threshold: full values are read by a follow-up get of the object by {@link Name}, i.e. an OBJECT-scope
+     * read of its entry.
+     */
+    public static final String LAZY_BINARY_ATTR_NAME = AttributeUtil.createSpecialName("LAZY_BINARY");
+
+    /**
+     * Search operation option carrying a native LDAP filter, e.g. {@code (cn~=smith)}, which is ANDed to the
+     * translated search filter so that it can be evaluated by the LDAP server.
+     */
+    public static final String NATIVE_FILTER_OPTION = "NATIVE_FILTER";
+
+    /**
+     * Search operation option which, when true, makes the search pass no objects to the results handler, but only
+     * report the number of matching entries; paging options, attributes to get and the size limit are ignored. The
+     * results handler must be a {@link org.identityconnectors.framework.spi.SearchResultsHandler}, which is given a
+     * single {@link org.identityconnectors.framework.common.objects.SearchResult} with:
+     * <ul>
+     * <li>{@code remainingPagedResults} set to the number of matching entries, none of which was returned; this is
+     * the estimate of the LDAP server when available, via VLV content count or paged results size, the exact number
+     * of entries otherwise, never -1</li>
+     * <li>no paged results cookie</li>
+     * <li>{@code allResultsReturned} set to true, as the count covers all matching entries</li>
+     * </ul>
+     */
+    public static final String COUNT_ONLY_OPTION = "COUNT_ONLY";
+
+    /**
+     * Search operation option overriding the configured search time limit, in seconds.
+     */
+    public static final String TIME_LIMIT_OPTION = "TIME_LIMIT";
+
+    /**
+     * Search operation option overriding the configured search size limit.
+     */
+    public static final String SIZE_LIMIT_OPTION = "SIZE_LIMIT";
+
     public static final Set<String> NON_RETURN_ATTRS = Set.of(
-            Uid.NAME, Name.NAME, PredefinedAttributes.GROUPS_NAME, LEGACY_GROUPS_ATTR_NAME, SYNCREPL_COOKIE_NAME);
+            Uid.NAME, Name.NAME, PredefinedAttributes.GROUPS_NAME, LEGACY_GROUPS_ATTR_NAME, SYNCREPL_COOKIE_NAME,
+            LAZY_BINARY_ATTR_NAME);
 
     private LdUpConstants() {
         // private constructor for static utility class
@@ -0,0 +1,559 @@
+/**
+ * Copyright (C) 2025 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ldup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.identityconnectors.common.logging.Log;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.ResultPredicate;
+import org.ldaptive.ReturnAttributes;
+import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResponse;
+import org.ldaptive.SearchScope;
+import org.ldaptive.SingleConnectionFactory;
+import org.ldaptive.control.SyncDoneControl;
+import org.ldaptive.control.SyncRequestControl;
+import org.ldaptive.control.SyncStateControl;
+import org.ldaptive.control.util.DefaultCookieManager;
+import org.ldaptive.control.util.SyncReplClient;
+import org.ldaptive.extended.SyncInfoMessage;
+
+/**
+ * Bounded in-memory cache of Uid to DN resolutions, and back, so that the modify operations do not need to search for
+ * the DN of the object they are about to change.
+ *
+ * Resolutions expire after the configured TTL, and the least recently used ones are evicted once the configured size
+ * is exceeded; Uids found unknown for an object class are cached as well. Creates, renames and deletes performed by
+ * this connector update the cache immediately, while changes made by others are only seen upon expiry, unless the
+ * optional SyncRepl refreshAndPersist sessions, one for each base DN, report them earlier: such sessions start from the
+ * state current when they are opened, so that only changes are received, rather than all entries.
+ */
+public class LdUpDnCache {
+
+    protected static final Log LOG = Log.getLog(LdUpDnCache.class);
+
+    protected static final char SEPARATOR = '\u0001';
+
+    protected static final long MIN_RESTART_DELAY_MILLIS = 1000;
+
+    protected static final long MAX_RESTART_DELAY_MILLIS = 300000;
+
+    /**
+     * Cached resolution of a Uid for a given object class: either its DN, or unknown.
+     */
+    public static final class Resolution {
+
+        protected final String key;
+
+        protected final String value;
+
+        protected final String dn;
+
+        protected final String objectClass;
+
+        protected final long expiry;
+
+        protected Resolution(
+                final String key,
+                final String value,
+                final String dn,
+                final String objectClass,
+                final long expiry) {
+
+            this.key = key;
+            this.value = value;
+            this.dn = dn;
+            this.objectClass = objectClass;
+            this.expiry = expiry;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return DN, or null if the Uid was found unknown
+         */
+        public String getDn() {
+            return dn;
+        }
+
+        /**
+         * @param objectClass LDAP object class
+         * @return whether the Uid was found unknown for the given object class
+         */
+        public boolean isUnknown(final String objectClass) {
+            return dn == null && objectClass.equalsIgnoreCase(this.objectClass);
+        }
+
+        /**
+         * @param objectClass LDAP object class
+         * @return whether the DN was found for the given object class
+         */
+        public boolean isKnown(final String objectClass) {
+            return dn != null && objectClass.equalsIgnoreCase(this.objectClass);
+        }
+    }
+
+    protected final LdUpUtils ldUpUtils;
+
+    protected final long ttl;
+
+    // id attribute and value -> resolution, in access order
+    protected final Map<String, Resolution> resolutions;
+
+    // lowercase id attribute -> whether its values are compared ignoring case
+    protected final Map<String, Boolean> ignoreCase = new ConcurrentHashMap<>();
+
+    // normalized DN -> keys of the resolutions to such DN
+    protected final Map<String, Set<String>> keysByDn = new HashMap<>();
+
+    // base DNs whose refresh phase is not complete yet
+    protected final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    // guards the SyncRepl sessions, which are never closed while holding the lock of this cache, as their callbacks
+    // might be waiting for it
+    protected final Object sessions = new Object();
+
+    protected final List<SingleConnectionFactory> scfs = new ArrayList<>();
+
+    protected final List<SyncReplClient> clients = new ArrayList<>();
+
+    // obtained upfront, as restarts shall not wait for the connector configuration lock
+    protected final ConnectionConfig connectionConfig;
+
+    protected final ExecutorService executor;
+
+    // incremented each time the SyncRepl sessions are closed, so that the callbacks of former sessions are ignored
+    protected final AtomicInteger generation = new AtomicInteger();
+
+    protected final AtomicBoolean restartPending = new AtomicBoolean(false);
+
+    protected final AtomicLong restartDelay = new AtomicLong(MIN_RESTART_DELAY_MILLIS);
+
+    protected volatile boolean stopped = true;
+
+    // whether all SyncRepl sessions of the current generation are running and refreshed
+    protected volatile boolean live;
+
+    public LdUpDnCache(final LdUpUtils ldUpUtils) {
+        this.ldUpUtils = ldUpUtils;
+        this.ttl = TimeUnit.SECONDS.toNanos(ldUpUtils.getConfiguration().getDnCacheTtlSeconds());
+        this.executor = ldUpUtils.getExecutorService();
+        this.connectionConfig = ldUpUtils.getConnectionConfig();
+
+        int maxSize = ldUpUtils.getConfiguration().getDnCacheSize();
+        this.resolutions = new LinkedHashMap<>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 5305377475931577457L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Resolution> eldest) {
+                if (size() > maxSize) {
+                    unindex(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Builds the key of the resolution of the given id attribute value: values are lowercased only if the id attribute
+     * compares them ignoring case, so that distinct values of case-sensitive ones are never mixed up. Never invoked
+     * while holding the lock of this cache, as reading the LDAP server schema takes the connector configuration lock,
+     * which is held in turn when the cache is stopped.
+     *
+     * @param idAttr id attribute
+     * @param value id attribute value
+     * @return key
+     */
+    protected String key(final String idAttr, final String value) {
+        String attr = idAttr.toLowerCase();
+        return attr + SEPARATOR + (ignoreCase.computeIfAbsent(attr, k -> ldUpUtils.getSchemaOp().ignoresCase(idAttr))
+                ? value.toLowerCase()
+                : value);
+    }
+
+    /**
+     * Starts the SyncRepl sessions invalidating this cache, if enabled and not already running; should any session
+     * fail later, the cache is emptied and all sessions are restarted after a delay, doubled on each consecutive
+     * failure.
+     */
+    public void start() {
+        synchronized (sessions) {
+            stopped = false;
+            open();
+        }
+    }
+
+    protected void open() {
+        if (!ldUpUtils.getConfiguration().isDnCacheSyncRepl() || !clients.isEmpty()) {
+            return;
+        }
+
+        int current = generation.get();
+        String[] idAttrs = idAttributes().toArray(String[]::new);
+        List<String> baseDns = ldUpUtils.getBaseDns();
+        refreshing.addAll(baseDns);
+        try {
+            for (String baseDn : baseDns) {
+                SingleConnectionFactory scf = new SingleConnectionFactory(connectionConfig);
+                scfs.add(scf);
+
+                scf.initialize();
+
+                // the cache is empty when sessions start: only changes from now on matter, so the session starts from
+                // the current state, rather than having the refresh phase send all entries under the base DN
+                DefaultCookieManager cookieManager = new DefaultCookieManager();
+                Optional.ofNullable(currentCookie(scf, baseDn)).ifPresentOrElse(
+                        cookieManager::writeCookie,
+                        () -> LOG.warn("No SyncRepl cookie available for {0}, full refresh expected", baseDn));
+
+                SyncReplClient client = new SyncReplClient(scf, true);
+                clients.add(client);
+
+                AtomicBoolean refreshed = new AtomicBoolean(false);
+                client.setOnEntry(this::onEntry);
+                client.setOnMessage(message -> onMessage(message, baseDn, refreshed, current));
+                client.setOnResult(result -> {
+                    LOG.warn("SyncRepl session for DN cache on {0} ended: {1}", baseDn, result);
+                    failed(current);
+                });
+                client.setOnException(e -> {
+                    LOG.error(e, "SyncRepl session for DN cache on {0} failed", baseDn);
+                    failed(current);
+                });
+
+                client.send(SearchRequest.builder().
+                        dn(baseDn).
+                        scope(SearchScope.SUBTREE).
+                        filter(ldUpUtils.withExclusions("objectClass=*")).
+                        returnAttributes(idAttrs).
+                        build(), cookieManager);
+            }
+        } catch (LdapException e) {
+            LOG.error(e, "While starting SyncRepl session for DN cache");
+            close();
+            scheduleRestart();
+        }
+    }
+
+    /**
+     * Reads the current SyncRepl cookie for the given base DN, via a refreshOnly search matching no entries, sent on
+     * the connection the session is about to use.
+     *
+     * @param scf connection factory
+     * @param baseDn base DN
+     * @return current cookie, or null if none was returned
+     * @throws LdapException if the search could not be performed
+     */
+    protected byte[] currentCookie(final SingleConnectionFactory scf, final String baseDn) throws LdapException {
+        SearchResponse response = SearchOperation.builder().
+                factory(scf).
+                throwIf(ResultPredicate.NOT_SUCCESS).
+                build().execute(SearchRequest.builder().
+                        dn(baseDn).
+                        scope(SearchScope.OBJECT).
+                        filter("(!(objectClass=*))").
+                        returnAttributes(ReturnAttributes.NONE.value()).
+                        controls(new SyncRequestControl(SyncRequestControl.Mode.REFRESH_ONLY, true)).
+                        build());
+        return Optional.ofNullable((SyncDoneControl) response.getControl(SyncDoneControl.OID)).
+                map(SyncDoneControl::getCookie).
+                orElse(null);
+    }
+
+    /**
+     * Invoked by the callbacks of the SyncRepl sessions of the given generation upon failure: since changes made by
+     * others would go unnoticed from now on, the cache is emptied, then the sessions are restarted later; both happen
+     * on another thread, since the sessions cannot be closed from their own callbacks.
+     *
+     * @param sessionGeneration generation of the failed session
+     */
+    protected void failed(final int sessionGeneration) {
+        if (sessionGeneration != generation.get()) {
+            return;
+        }
+        live = false;
+
+        try {
+            executor.submit(this::clear);
+        } catch (RejectedExecutionException e) {
+            LOG.ok("Not emptying DN cache, as the connector is being disposed");
+        }
+        scheduleRestart();
+    }
+
+    protected void scheduleRestart() {
+        if (stopped || !restartPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        long delay = restartDelay.getAndUpdate(current -> Math.min(current * 2, MAX_RESTART_DELAY_MILLIS));
+        LOG.ok("Restarting SyncRepl sessions for DN cache in {0} ms", delay);
+        try {
+            executor.submit(() -> {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                restart();
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.ok("Not restarting SyncRepl sessions for DN cache, as the connector is being disposed");
+        }
+    }
+
+    protected void restart() {
+        synchronized (sessions) {
+            restartPending.set(false);
+            if (!stopped) {
+                close();
+                open();
+            }
+        }
+    }
+
+    /**
+     * Stops the SyncRepl sessions invalidating this cache, if any, and empties it, since changes made by others would
+     * go unnoticed from now on.
+     */
+    public void stop() {
+        synchronized (sessions) {
+            stopped = true;
+            close();
+        }
+    }
+
+    protected void close() {
+        live = false;
+        generation.incrementAndGet();
+
+        clients.forEach(SyncReplClient::close);
+        clients.clear();
+        scfs.forEach(SingleConnectionFactory::close);
+        scfs.clear();
+        refreshing.clear();
+
+        clear();
+    }
+
+    protected Set<String> idAttributes() {
+        return Stream.of(
+                ldUpUtils.getConfiguration().getUidAttribute(),
+                ldUpUtils.getConfiguration().getGidAttribute(),
+                ldUpUtils.getConfiguration().getAidAttribute()).
+                filter(attr -> !LdUpUtils.isDNAttribute(attr)).
+                collect(Collectors.toSet());
+    }
+
+    protected void onEntry(final LdapEntry entry) {
+        // sessions start from the current state: entries reported were just added, modified or deleted, and whatever
+        // was cached for their current DN or id attribute values is not reliable anymore; their previous DN, if
+        // renamed, is dropped via the id attribute values
+        remove(entry.getDn());
+        idAttributes().forEach(idAttr -> Optional.ofNullable(entry.getAttribute(idAttr)).
+                ifPresent(attr -> attr.getStringValues().forEach(value -> remove(idAttr, value))));
+
+        SyncStateControl ssc = (SyncStateControl) entry.getControl(SyncStateControl.OID);
+        if (ssc != null && ssc.getEntryUuid() != null) {
+            removeEntryUuid(ssc.getEntryUuid().toString());
+        }
+    }
+
+    protected void onMessage(
+            final SyncInfoMessage message,
+            final String baseDn,
+            final AtomicBoolean refreshed,
+            final int sessionGeneration) {
+
+        if (sessionGeneration != generation.get()) {
+            return;
+        }
+
+        if (message.getMessageType() == SyncInfoMessage.Type.SYNC_ID_SET && message.getRefreshDeletes()) {
+
+            message.getEntryUuids().forEach(uuid -> removeEntryUuid(uuid.toString()));
+        }
+
+        if ((message.getMessageType() == SyncInfoMessage.Type.REFRESH_PRESENT
+                || message.getMessageType() == SyncInfoMessage.Type.REFRESH_DELETE)
+                && message.getRefreshDone()
+                && refreshed.compareAndSet(false, true)) {
+
+            refreshing.remove(baseDn);
+            if (refreshing.isEmpty()) {
+                LOG.ok("SyncRepl sessions for DN cache refreshed");
+                restartDelay.set(MIN_RESTART_DELAY_MILLIS);
+                live = sessionGeneration == generation.get();
+            }
+        }
+    }
+
+    protected void removeEntryUuid(final String uuid) {
+        idAttributes().stream().
+                filter(idAttr -> "entryUUID".equalsIgnoreCase(idAttr)).
+                forEach(idAttr -> remove(idAttr, uuid));
+    }
+
+    /**
+     * Tells whether the SyncRepl sessions invalidating this cache are running and refreshed on all base DNs, so that
+     * changes made by others are reflected by the cached resolutions as soon as reported.
+     *
+     * @return whether the SyncRepl sessions invalidating this cache are running and refreshed
+     */
+    public boolean isLive() {
+        return live && !stopped;
+    }
+
+    /**
+     * Returns the cached resolution of the given id attribute value, if any and not expired.
+     *
+     * @param idAttr id attribute
+     * @param value id attribute value
+     * @return cached resolution, or null if none
+     */
+    public Resolution get(final String idAttr, final String value) {
+        return get(key(idAttr, value));
+    }
+
+    protected synchronized Resolution get(final String key) {
+        Resolution resolution = resolutions.get(key);
+        if (resolution != null && resolution.expiry - System.nanoTime() <= 0) {
+            resolutions.remove(key);
+            unindex(resolution);
+            resolution = null;
+        }
+        return resolution;
+    }
+
+    /**
+     * Returns the cached value of the given id attribute for the given DN, if any and not expired.
+     *
+     * @param idAttr id attribute
+     * @param dn DN
+     * @return id attribute value, or empty if none cached
+     */
+    public synchronized Optional<String> getValue(final String idAttr, final String dn) {
+        String prefix = idAttr.toLowerCase() + SEPARATOR;
+        return Optional.ofNullable(keysByDn.get(LdUpUtils.normalizeDn(dn))).
+                flatMap(keys -> keys.stream().filter(key -> key.startsWith(prefix)).findFirst()).
+                map(this::get).
+                map(Resolution::getValue);
+    }
+
+    /**
+     * Records the DN of the entry of the given object class with the given id attribute value.
+     *
+     * @param idAttr id attribute
+     * @param value id attribute value
+     * @param dn DN
+     * @param objectClass LDAP object class
+     */
+    public void put(final String idAttr, final String value, final String dn, final String objectClass) {
+        put(new Resolution(key(idAttr, value), value, dn, objectClass, System.nanoTime() + ttl));
+    }
+
+    /**
+     * Records that no entry of the given object class has the given id attribute value.
+     *
+     * @param idAttr id attribute
+     * @param value id attribute value
+     * @param objectClass LDAP object class
+     */
+    public void putUnknown(final String idAttr, final String value, final String objectClass) {
+        put(new Resolution(key(idAttr, value), value, null, objectClass, System.nanoTime() + ttl));
+    }
+
+    protected synchronized void put(final Resolution resolution) {
+        Optional.ofNullable(resolutions.put(resolution.key, resolution)).ifPresent(this::unindex);
+        if (resolution.dn != null) {
+            keysByDn.computeIfAbsent(LdUpUtils.normalizeDn(resolution.dn), k -> new HashSet<>(1)).
+                    add(resolution.key);
+        }
+    }
+
+    /**
+     * Forgets the resolution of the given id attribute value.
+     *
+     * @param idAttr id attribute
+     * @param value id attribute value
+     */
+    public void remove(final String idAttr, final String value) {
+        removeKey(key(idAttr, value));
+    }
+
+    protected synchronized void removeKey(final String key) {
+        Optional.ofNullable(resolutions.remove(key)).ifPresent(this::unindex);
+    }
+
+    /**
+     * Forgets all resolutions to the given DN, as after it was renamed or deleted.
+     *
+     * @param dn DN
+     */
+    public synchronized void remove(final String dn) {
+        Optional.ofNullable(keysByDn.remove(LdUpUtils.normalizeDn(dn))).
+                ifPresent(keys -> keys.forEach(resolutions::remove));
+    }
+
+    protected void unindex(final Resolution resolution) {
+        if (resolution.dn != null) {
+            String normalized = LdUpUtils.normalizeDn(resolution.dn);
+            Optional.ofNullable(keysByDn.get(normalized)).ifPresent(keys -> {
+                keys.remove(resolution.key);
+                if (keys.isEmpty()) {
+                    keysByDn.remove(normalized);
+                }
+            });
+        }
+    }
+
+    public synchronized void clear() {
+        resolutions.clear();
+        keysByDn.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LdUpDnCache{"
+                + "size=" + resolutions.size()
+                + ", syncRepl=" + !clients.isEmpty()
+                + '}';
+    }
+}
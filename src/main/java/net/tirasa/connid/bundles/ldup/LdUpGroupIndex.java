@@ -0,0 +1,445 @@
+/**
+ * Copyright (C) 2025 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ldup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import org.identityconnectors.common.logging.Log;
+import org.ldaptive.AttributeModification;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchScope;
+import org.ldaptive.SingleConnectionFactory;
+import org.ldaptive.control.SyncStateControl;
+import org.ldaptive.control.util.SyncReplClient;
+import org.ldaptive.extended.SyncInfoMessage;
+
+/**
+ * In-memory reverse index of group memberships: member DN to the DNs of the groups it belongs to.
+ *
+ * The index is loaded by the refresh phase of a SyncRepl refreshAndPersist session on the group object class, one for
+ * each base DN, then kept current by the persist phase of the same session. Until the refresh phase of all sessions is
+ * complete, or after any session was lost and until all of them are restarted and refreshed, the index is not ready
+ * and callers are expected to search the LDAP server instead.
+ */
+public class LdUpGroupIndex {
+
+    protected static final Log LOG = Log.getLog(LdUpGroupIndex.class);
+
+    protected static final long MIN_RESTART_DELAY_MILLIS = 1000;
+
+    protected static final long MAX_RESTART_DELAY_MILLIS = 300000;
+
+    protected static class Group {
+
+        protected final String dn;
+
+        protected final Set<String> members;
+
+        protected Group(final String dn, final Set<String> members) {
+            this.dn = dn;
+            this.members = members;
+        }
+    }
+
+    protected final LdUpUtils ldUpUtils;
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // group entryUUID -> group
+    protected final Map<UUID, Group> groups = new HashMap<>();
+
+    // normalized group DN -> group entryUUID
+    protected final Map<String, UUID> groupUuids = new HashMap<>();
+
+    // normalized member DN -> entryUUIDs of the groups it belongs to
+    protected final Map<String, Set<UUID>> memberships = new HashMap<>();
+
+    // normalized member DN -> the same, so that each is held once however many groups it belongs to
+    protected final Map<String, String> canonicalDns = new HashMap<>();
+
+    protected volatile boolean ready;
+
+    // base DNs whose refresh phase is not complete yet
+    protected final AtomicInteger refreshing = new AtomicInteger();
+
+    protected final List<SingleConnectionFactory> scfs = new ArrayList<>();
+
+    protected final List<SyncReplClient> clients = new ArrayList<>();
+
+    // obtained upfront, as restarts shall not wait for the connector configuration lock
+    protected final ConnectionConfig connectionConfig;
+
+    protected final ExecutorService executor;
+
+    // incremented each time the SyncRepl sessions are closed, so that the callbacks of former sessions are ignored
+    protected final AtomicInteger generation = new AtomicInteger();
+
+    protected final AtomicBoolean restartPending = new AtomicBoolean(false);
+
+    protected final AtomicLong restartDelay = new AtomicLong(MIN_RESTART_DELAY_MILLIS);
+
+    protected volatile boolean stopped = true;
+
+    public LdUpGroupIndex(final LdUpUtils ldUpUtils) {
+        this.ldUpUtils = ldUpUtils;
+        this.executor = ldUpUtils.getExecutorService();
+        this.connectionConfig = ldUpUtils.getConnectionConfig();
+    }
+
+    /**
+     * Starts the SyncRepl sessions feeding this index, unless already running; should any session fail later, all of
+     * them are restarted after a delay, doubled on each consecutive failure.
+     */
+    public synchronized void start() {
+        stopped = false;
+        open();
+    }
+
+    protected void open() {
+        if (!clients.isEmpty()) {
+            return;
+        }
+
+        int current = generation.get();
+        List<String> baseDns = ldUpUtils.getBaseDns();
+        refreshing.set(baseDns.size());
+        try {
+            for (String baseDn : baseDns) {
+                SingleConnectionFactory scf = new SingleConnectionFactory(connectionConfig);
+                scfs.add(scf);
+                SyncReplClient client = new SyncReplClient(scf, true);
+                clients.add(client);
+
+                scf.initialize();
+
+                AtomicBoolean refreshed = new AtomicBoolean(false);
+                client.setOnEntry(entry -> onEntry(entry, current));
+                client.setOnMessage(message -> onMessage(message, refreshed, current));
+                client.setOnResult(result -> {
+                    LOG.warn("SyncRepl session for group index on {0} ended: {1}", baseDn, result);
+                    failed(current);
+                });
+                client.setOnException(e -> {
+                    LOG.error(e, "SyncRepl session for group index on {0} failed", baseDn);
+                    failed(current);
+                });
+
+                client.send(SearchRequest.builder().
+                        dn(baseDn).
+                        scope(SearchScope.SUBTREE).
+                        filter(ldUpUtils.withExclusions(
+                                "objectClass=" + ldUpUtils.getConfiguration().getGroupObjectClass())).
+                        returnAttributes(ldUpUtils.getConfiguration().getGroupMemberAttribute()).
+                        build());
+            }
+        } catch (LdapException e) {
+            LOG.error(e, "While starting SyncRepl session for group index");
+            close();
+            scheduleRestart();
+        }
+    }
+
+    /**
+     * Invoked by the callbacks of the SyncRepl sessions of the given generation upon failure: the index is not ready
+     * from now on, and the sessions are restarted later, from another thread, since they cannot be closed from their
+     * own callbacks.
+     *
+     * @param sessionGeneration generation of the failed session
+     */
+    protected void failed(final int sessionGeneration) {
+        if (sessionGeneration == generation.get()) {
+            ready = false;
+            scheduleRestart();
+        }
+    }
+
+    protected void scheduleRestart() {
+        if (stopped || !restartPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        long delay = restartDelay.getAndUpdate(current -> Math.min(current * 2, MAX_RESTART_DELAY_MILLIS));
+        LOG.ok("Restarting SyncRepl sessions for group index in {0} ms", delay);
+        try {
+            executor.submit(() -> {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                restart();
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.ok("Not restarting SyncRepl sessions for group index, as the connector is being disposed");
+        }
+    }
+
+    protected synchronized void restart() {
+        restartPending.set(false);
+        if (!stopped) {
+            close();
+            open();
+        }
+    }
+
+    /**
+     * Stops the SyncRepl session feeding this index and empties it; it can be started again later.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        close();
+    }
+
+    protected void close() {
+        ready = false;
+        generation.incrementAndGet();
+
+        clients.forEach(SyncReplClient::close);
+        clients.clear();
+        scfs.forEach(SingleConnectionFactory::close);
+        scfs.clear();
+
+        lock.writeLock().lock();
+        try {
+            // callbacks of former sessions check the generation while holding the lock: none of them can update the
+            // index, nor make it ready, from now on
+            ready = false;
+            groups.clear();
+            groupUuids.clear();
+            memberships.clear();
+            canonicalDns.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Tells whether the given generation is the current one; only meaningful while holding the lock.
+     *
+     * @param sessionGeneration generation of the session invoking a callback
+     * @return whether the given generation is the current one
+     */
+    protected boolean isCurrent(final int sessionGeneration) {
+        if (sessionGeneration != generation.get()) {
+            LOG.ok("Ignoring callback of former SyncRepl session for group index");
+            return false;
+        }
+        return true;
+    }
+
+    protected void onEntry(final LdapEntry entry, final int sessionGeneration) {
+        SyncStateControl ssc = (SyncStateControl) entry.getControl(SyncStateControl.OID);
+        if (ssc == null || ssc.getEntryUuid() == null) {
+            LOG.warn("Ignoring group entry without SyncStateControl: {0}", entry.getDn());
+            return;
+        }
+
+        // a group moved inside an excluded DN, when excluded DNs are left out as received, is as deleted
+        SyncStateControl.State state = ssc.getSyncState() != SyncStateControl.State.DELETE
+                && ldUpUtils.isExcludedClientSide(entry.getDn())
+                ? SyncStateControl.State.DELETE
+                : ssc.getSyncState();
+        switch (state) {
+            case ADD:
+            case MODIFY:
+                put(ssc.getEntryUuid(), entry.getDn(),
+                        Optional.ofNullable(entry.getAttribute(ldUpUtils.getConfiguration().getGroupMemberAttribute())).
+                                map(attr -> attr.getStringValues()).
+                                orElseGet(Set::of),
+                        sessionGeneration);
+                break;
+
+            case DELETE:
+                lock.writeLock().lock();
+                try {
+                    if (isCurrent(sessionGeneration)) {
+                        remove(ssc.getEntryUuid());
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                break;
+
+            case PRESENT:
+            default:
+        }
+    }
+
+    protected void onMessage(
+            final SyncInfoMessage message,
+            final AtomicBoolean refreshed,
+            final int sessionGeneration) {
+
+        lock.writeLock().lock();
+        try {
+            if (!isCurrent(sessionGeneration)) {
+                return;
+            }
+
+            if (message.getMessageType() == SyncInfoMessage.Type.SYNC_ID_SET && message.getRefreshDeletes()) {
+                message.getEntryUuids().forEach(this::remove);
+            }
+
+            if ((message.getMessageType() == SyncInfoMessage.Type.REFRESH_PRESENT
+                    || message.getMessageType() == SyncInfoMessage.Type.REFRESH_DELETE)
+                    && message.getRefreshDone()
+                    && refreshed.compareAndSet(false, true)
+                    && refreshing.decrementAndGet() == 0) {
+
+                LOG.ok("Group index ready: {0} groups, {1} members", groups.size(), memberships.size());
+                ready = true;
+                restartDelay.set(MIN_RESTART_DELAY_MILLIS);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    protected void put(
+            final UUID uuid,
+            final String dn,
+            final Collection<String> memberDns,
+            final int sessionGeneration) {
+
+        List<String> normalized = memberDns.stream().map(LdUpUtils::normalizeDn).collect(Collectors.toList());
+
+        lock.writeLock().lock();
+        try {
+            if (!isCurrent(sessionGeneration)) {
+                return;
+            }
+
+            remove(uuid);
+
+            // the same member DN is usually found in several groups
+            Set<String> members = normalized.stream().
+                    map(this::canonical).
+                    collect(Collectors.toCollection(HashSet::new));
+            groups.put(uuid, new Group(dn, members));
+            groupUuids.put(LdUpUtils.normalizeDn(dn), uuid);
+            members.forEach(member -> memberships.computeIfAbsent(member, k -> new HashSet<>(1)).add(uuid));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    protected void remove(final UUID uuid) {
+        lock.writeLock().lock();
+        try {
+            Group group = groups.remove(uuid);
+            if (group != null) {
+                groupUuids.remove(LdUpUtils.normalizeDn(group.dn));
+                group.members.forEach(member -> removeMembership(member, uuid));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    protected void removeMembership(final String member, final UUID uuid) {
+        Optional.ofNullable(memberships.get(member)).ifPresent(uuids -> {
+            uuids.remove(uuid);
+            if (uuids.isEmpty()) {
+                memberships.remove(member);
+                canonicalDns.remove(member);
+            }
+        });
+    }
+
+    protected String canonical(final String member) {
+        return canonicalDns.computeIfAbsent(member, k -> k);
+    }
+
+    /**
+     * Returns the DNs of the groups the given DN is member of.
+     *
+     * @param memberDn member DN
+     * @return group DNs
+     */
+    public Set<String> getGroups(final String memberDn) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(memberships.get(LdUpUtils.normalizeDn(memberDn))).
+                    map(uuids -> uuids.stream().map(uuid -> groups.get(uuid).dn).collect(Collectors.toSet())).
+                    orElseGet(HashSet::new);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records a membership change performed by this connector, so that it is immediately visible, rather than only
+     * after the SyncRepl session has reported it.
+     *
+     * @param groupDn group DN
+     * @param memberDn member DN
+     * @param modType how the member attribute was modified: with {@code REPLACE}, the given member DN is now the only
+     * member of the group
+     */
+    public void memberModified(final String groupDn, final String memberDn, final AttributeModification.Type modType) {
+        String member = LdUpUtils.normalizeDn(memberDn);
+
+        lock.writeLock().lock();
+        try {
+            Optional.ofNullable(groupUuids.get(LdUpUtils.normalizeDn(groupDn))).ifPresent(uuid -> {
+                Set<String> members = groups.get(uuid).members;
+                if (modType == AttributeModification.Type.DELETE) {
+                    members.remove(member);
+                    removeMembership(member, uuid);
+                    return;
+                }
+
+                if (modType == AttributeModification.Type.REPLACE) {
+                    members.removeIf(other -> {
+                        if (other.equals(member)) {
+                            return false;
+                        }
+                        removeMembership(other, uuid);
+                        return true;
+                    });
+                }
+                String canonical = canonical(member);
+                members.add(canonical);
+                memberships.computeIfAbsent(canonical, k -> new HashSet<>(1)).add(uuid);
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -15,13 +15,20 @@
  */
 package net.tirasa.connid.bundles.ldup;
 
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
 import org.identityconnectors.framework.common.objects.AttributeInfoBuilder;
@@ -32,7 +39,10 @@ import org.identityconnectors.framework.common.objects.PredefinedAttributes;
 import org.identityconnectors.framework.common.objects.Schema;
 import org.identityconnectors.framework.common.objects.SchemaBuilder;
 import org.identityconnectors.framework.spi.operations.SchemaOp;
+import org.ldaptive.LdapException;
+import org.ldaptive.schema.AttributeType;
 import org.ldaptive.schema.AttributeUsage;
+import org.ldaptive.schema.DITContentRule;
 import org.ldaptive.schema.ObjectClassType;
 import org.ldaptive.schema.SchemaFactory;
 
@@ -40,13 +50,30 @@ public class LdUpSchemaOp implements SchemaOp {
 
     protected static final Log LOG = Log.getLog(LdUpSchemaOp.class);
 
-    protected static Optional<AttributeInfo> toAttributeInfo(
+    protected final LdUpUtils ldUpUtils;
+
+    protected volatile org.ldaptive.schema.Schema serverSchema;
+
+    // names of the binary attributes defined by the LDAP server schema, case-insensitive
+    protected volatile Set<String> binaryAttributes;
+
+    protected Schema schema;
+
+    // LDAP object class -> LDAP attributes returned by default
+    protected final Map<String, Set<String>> returnedByDefault = new ConcurrentHashMap<>();
+
+    public LdUpSchemaOp(final LdUpUtils ldUpUtils) {
+        this.ldUpUtils = ldUpUtils;
+    }
+
+    protected Optional<AttributeInfo> toAttributeInfo(
             final org.ldaptive.schema.Schema ldapSchema,
             final String attr,
             final Optional<AttributeInfo.Flags> add) {
 
         return Optional.ofNullable(ldapSchema.getAttributeType(attr)).map(attrType -> {
             Set<AttributeInfo.Flags> flags = EnumSet.noneOf(AttributeInfo.Flags.class);
+            boolean binary = binaryAttributes.contains(attr);
 
             if (!attrType.isSingleValued()) {
                 flags.add(AttributeInfo.Flags.MULTIVALUED);
@@ -55,36 +82,48 @@ public class LdUpSchemaOp implements SchemaOp {
                 flags.add(AttributeInfo.Flags.NOT_CREATABLE);
                 flags.add(AttributeInfo.Flags.NOT_UPDATEABLE);
             }
-            if (attrType.getUsage() != AttributeUsage.USER_APPLICATIONS) {
+            // operational, binary and password attributes are only fetched when explicitly requested
+            if (attrType.getUsage() != AttributeUsage.USER_APPLICATIONS
+                    || binary
+                    || ldUpUtils.getConfiguration().getPasswordAttribute().equalsIgnoreCase(attr)) {
+
                 flags.add(AttributeInfo.Flags.NOT_RETURNED_BY_DEFAULT);
             }
 
             add.ifPresent(flags::add);
 
-            return AttributeInfoBuilder.build(
-                    attr,
-                    Arrays.binarySearch(ldapSchema.getBinaryAttributeNames(), attr) < 0 ? String.class : byte[].class,
-                    flags);
+            return AttributeInfoBuilder.build(attr, binary ? byte[].class : String.class, flags);
         });
     }
 
-    protected final LdUpUtils ldUpUtils;
+    protected org.ldaptive.schema.Schema serverSchema() throws LdapException {
+        org.ldaptive.schema.Schema ldapSchema = serverSchema;
+        if (ldapSchema == null) {
+            synchronized (ldUpUtils.getConfiguration()) {
+                if (serverSchema == null) {
+                    org.ldaptive.schema.Schema read = SchemaFactory.createSchema(ldUpUtils.getConnectionFactory());
 
-    protected Schema schema;
+                    Set<String> binary = CollectionUtil.newCaseInsensitiveSet();
+                    Optional.ofNullable(read.getBinaryAttributeNames()).
+                            ifPresent(names -> binary.addAll(List.of(names)));
+                    binaryAttributes = Collections.unmodifiableSet(binary);
 
-    public LdUpSchemaOp(final LdUpUtils ldUpUtils) {
-        this.ldUpUtils = ldUpUtils;
+                    serverSchema = read;
+                }
+                ldapSchema = serverSchema;
+            }
+        }
+        return ldapSchema;
     }
 
     @Override
     public Schema schema() {
-        synchronized (ldUpUtils) {
+        synchronized (ldUpUtils.getConfiguration()) {
             if (schema == null) {
                 SchemaBuilder schemaBld = new SchemaBuilder(LdUpConnector.class);
 
                 try {
-                    org.ldaptive.schema.Schema ldapSchema =
-                            SchemaFactory.createSchema(ldUpUtils.getConnectionFactory());
+                    org.ldaptive.schema.Schema ldapSchema = serverSchema();
 
                     ldapSchema.getObjectClasses().forEach(ldapClass -> {
                         ObjectClassInfoBuilder objClassBld = new ObjectClassInfoBuilder();
@@ -176,4 +215,154 @@ public class LdUpSchemaOp implements SchemaOp {
 
         return schema;
     }
+
+    /**
+     * Tells whether the given LDAP attribute is defined as single-valued by the LDAP server schema.
+     *
+     * @param attr LDAP attribute
+     * @return whether the given LDAP attribute is single-valued; false if not found or if the schema cannot be read
+     */
+    public boolean isSingleValued(final String attr) {
+        try {
+            return Optional.ofNullable(serverSchema().getAttributeType(attr)).
+                    map(AttributeType::isSingleValued).
+                    orElse(false);
+        } catch (LdapException e) {
+            LOG.error(e, "While reading LDAP server schema");
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether the given LDAP attribute is defined as binary by the LDAP server schema.
+     *
+     * @param attr LDAP attribute
+     * @return whether the given LDAP attribute is binary; false if the schema cannot be read
+     */
+    public boolean isBinary(final String attr) {
+        try {
+            serverSchema();
+        } catch (LdapException e) {
+            LOG.error(e, "While reading LDAP server schema");
+            return false;
+        }
+        return binaryAttributes.contains(attr);
+    }
+
+    /**
+     * Tells whether the given LDAP attribute is returned by default, i.e. not flagged as
+     * {@link AttributeInfo.Flags#NOT_RETURNED_BY_DEFAULT}, as operational, binary and password attributes.
+     *
+     * @param attr LDAP attribute
+     * @return whether the given LDAP attribute is returned by default; true if not found or if the schema cannot be
+     * read
+     */
+    public boolean isReturnedByDefault(final String attr) {
+        try {
+            return toAttributeInfo(serverSchema(), attr, Optional.empty()).
+                    map(AttributeInfo::isReturnedByDefault).
+                    orElse(true);
+        } catch (LdapException e) {
+            LOG.error(e, "While reading LDAP server schema");
+            return true;
+        }
+    }
+
+    /**
+     * Returns the LDAP attributes returned by default for the given object class, i.e. those allowed by the matching
+     * LDAP object class, by its superior classes and by the auxiliary classes listed by its DIT content rule, but not
+     * flagged as {@link AttributeInfo.Flags#NOT_RETURNED_BY_DEFAULT}, as operational, binary and password attributes.
+     * Without a DIT content rule, as usual on OpenLDAP, entries can have any auxiliary class, so no exact list can be
+     * built: all user attributes are then to be asked for, and filtered by {@link #isReturnedByDefault(String)}.
+     *
+     * @param objectClass object class
+     * @return LDAP attributes returned by default, or empty set if the object class is not found in LDAP server schema
+     * or has no DIT content rule
+     */
+    public Set<String> returnedByDefault(final ObjectClass objectClass) {
+        Set<String> attrs = returnedByDefault.computeIfAbsent(ldUpUtils.ldapObjectClass(objectClass), ldapClass -> {
+            org.ldaptive.schema.Schema ldapSchema;
+            try {
+                ldapSchema = serverSchema();
+            } catch (LdapException e) {
+                // not cached, so that reading the schema is attempted again next time
+                LOG.error(e, "While reading LDAP server schema");
+                return null;
+            }
+
+            org.ldaptive.schema.ObjectClass structural = ldapSchema.getObjectClass(ldapClass);
+            if (structural == null) {
+                LOG.warn("Object class {0} not found in LDAP server schema", ldapClass);
+                return Set.of();
+            }
+
+            Optional<DITContentRule> rule = Optional.ofNullable(ldapSchema.getDitContentRules()).stream().
+                    flatMap(Collection::stream).
+                    filter(candidate -> candidate.getOID().equals(structural.getOID())).
+                    findFirst();
+            if (rule.isEmpty()) {
+                LOG.ok("No DIT content rule for {0}, all user attributes will be asked for", ldapClass);
+                return Set.of();
+            }
+
+            Deque<String> classes = new ArrayDeque<>();
+            classes.push(ldapClass);
+            Stream.of(Optional.ofNullable(rule.get().getAuxiliaryClasses()).orElseGet(() -> new String[0])).
+                    forEach(classes::push);
+
+            Set<String> result = new HashSet<>();
+            Set<String> visited = new HashSet<>();
+            while (!classes.isEmpty()) {
+                String name = classes.pop();
+                if (!visited.add(name.toLowerCase())) {
+                    continue;
+                }
+
+                Optional.ofNullable(ldapSchema.getObjectClass(name)).ifPresent(ldapObjectClass -> {
+                    Stream.concat(
+                            Stream.of(Optional.ofNullable(ldapObjectClass.getRequiredAttributes()).
+                                    orElseGet(() -> new String[0])),
+                            Stream.of(Optional.ofNullable(ldapObjectClass.getOptionalAttributes()).
+                                    orElseGet(() -> new String[0]))).
+                            forEach(attr -> toAttributeInfo(ldapSchema, attr, Optional.empty()).
+                            filter(AttributeInfo::isReturnedByDefault).
+                            ifPresent(info -> result.add(info.getName())));
+
+                    Optional.ofNullable(ldapObjectClass.getSuperiorClasses()).
+                            ifPresent(superiors -> Stream.of(superiors).forEach(classes::push));
+                });
+            }
+
+            LOG.ok("Attributes returned by default for {0}: {1}", ldapClass, result);
+            return Set.copyOf(result);
+        });
+
+        return attrs == null ? Set.of() : attrs;
+    }
+
+    /**
+     * Tells whether values of the given LDAP attribute are compared ignoring case, according to the equality matching
+     * rule defined by the LDAP server schema for it or for its superior attribute types.
+     *
+     * @param attr LDAP attribute
+     * @return whether values of the given LDAP attribute are compared ignoring case; false if unknown
+     */
+    public boolean ignoresCase(final String attr) {
+        try {
+            org.ldaptive.schema.Schema ldapSchema = serverSchema();
+            Set<String> visited = new HashSet<>();
+            for (AttributeType type = ldapSchema.getAttributeType(attr);
+                    type != null && visited.add(type.getOID());
+                    type = Optional.ofNullable(type.getSuperiorType()).map(ldapSchema::getAttributeType).orElse(null)) {
+
+                if (type.getEqualityMatchingRule() != null) {
+                    String rule = type.getEqualityMatchingRule().toLowerCase();
+                    return rule.startsWith("caseignore") || "uuidmatch".equals(rule);
+                }
+            }
+        } catch (LdapException e) {
+            LOG.error(e, "While reading LDAP server schema");
+        }
+        return false;
+    }
 }
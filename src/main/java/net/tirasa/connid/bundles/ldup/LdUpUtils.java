@@ -15,18 +15,36 @@
  */
 package net.tirasa.connid.bundles.ldup;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.Pair;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.common.security.SecurityUtil;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeUtil;
 import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
@@ -38,16 +56,23 @@ import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.PredefinedAttributes;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.ldaptive.BindConnectionInitializer;
+import org.ldaptive.Connection;
 import org.ldaptive.ConnectionConfig;
+import org.ldaptive.FilterTemplate;
+import org.ldaptive.LdapAttribute;
 import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
 import org.ldaptive.PooledConnectionFactory;
 import org.ldaptive.ReturnAttributes;
 import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchOperationHandle;
 import org.ldaptive.SearchRequest;
 import org.ldaptive.SearchResponse;
 import org.ldaptive.SearchScope;
 import org.ldaptive.SimpleBindRequest;
+import org.ldaptive.dn.DefaultRDnNormalizer;
+import org.ldaptive.dn.Dn;
+import org.ldaptive.dn.RDnNormalizer;
 import org.ldaptive.handler.ResultPredicate;
 import org.ldaptive.pool.BindConnectionPassivator;
 
@@ -57,6 +82,8 @@ public class LdUpUtils {
 
     protected static final Set<String> ENTRY_DN_ATTRS;
 
+    protected static final RDnNormalizer DN_NORMALIZER = new DefaultRDnNormalizer();
+
     static {
         Set<String> set = CollectionUtil.newCaseInsensitiveSet();
         set.add("entryDN");
@@ -70,12 +97,59 @@ public class LdUpUtils {
         return ENTRY_DN_ATTRS.contains(attrID);
     }
 
+    /**
+     * Normalizes the given DN, so that it can be compared with other normalized DNs.
+     *
+     * @param dn DN
+     * @return normalized DN
+     */
+    public static String normalizeDn(final String dn) {
+        try {
+            return new Dn(dn).format(DN_NORMALIZER);
+        } catch (IllegalArgumentException e) {
+            LOG.ok(e, "Could not parse {0}, falling back to lowercase", dn);
+            return dn.toLowerCase();
+        }
+    }
+
+    /**
+     * Tells whether the given DN is the same as, or a descendant of, the given base DN.
+     *
+     * @param dn DN
+     * @param baseDn base DN
+     * @return whether the given DN is inside the given base DN
+     */
+    public static boolean isInside(final String dn, final String baseDn) {
+        try {
+            Dn base = new Dn(baseDn);
+            Dn candidate = new Dn(dn);
+            return candidate.isSame(base, DN_NORMALIZER) || candidate.isDescendant(base, DN_NORMALIZER);
+        } catch (IllegalArgumentException e) {
+            LOG.ok(e, "Could not parse {0} or {1}", dn, baseDn);
+            return false;
+        }
+    }
+
     protected final LdUpConfiguration configuration;
 
     protected ConnectionConfig connectionConfig;
 
     protected PooledConnectionFactory connectionFactory;
 
+    protected ExecutorService executorService;
+
+    protected Set<String> supportedControls;
+
+    protected LdUpSchemaOp schemaOp;
+
+    protected LdUpGroupIndex groupIndex;
+
+    protected LdUpDnCache dnCache;
+
+    protected volatile Boolean memberOfSupported;
+
+    protected volatile Boolean dnSubtreeMatchSupported;
+
     public LdUpUtils(final LdUpConfiguration configuration) {
         this.configuration = configuration;
     }
@@ -133,6 +207,439 @@ public class LdUpUtils {
         return connectionFactory;
     }
 
+    public LdUpSchemaOp getSchemaOp() {
+        synchronized (configuration) {
+            if (schemaOp == null) {
+                schemaOp = new LdUpSchemaOp(this);
+            }
+        }
+        return schemaOp;
+    }
+
+    /**
+     * Reads the OIDs of the controls supported by the LDAP server from the root DSE.
+     *
+     * @return supported control OIDs, or empty set if the root DSE could not be read
+     */
+    public Set<String> getSupportedControls() {
+        synchronized (configuration) {
+            if (supportedControls == null) {
+                try {
+                    SearchResponse response = SearchOperation.builder().
+                            factory(getConnectionFactory()).
+                            throwIf(ResultPredicate.NOT_SUCCESS).
+                            build().execute(SearchRequest.objectScopeSearchRequest(
+                                    "", new String[] { "supportedControl" }));
+                    supportedControls = Optional.ofNullable(response.getEntry()).
+                            map(entry -> entry.getAttribute("supportedControl")).
+                            map(attr -> Set.copyOf(attr.getStringValues())).
+                            orElseGet(Set::of);
+                } catch (LdapException e) {
+                    LOG.error(e, "While reading supported controls from root DSE");
+                    return Set.of();
+                }
+            }
+        }
+        return supportedControls;
+    }
+
+    public boolean isControlSupported(final String oid) {
+        return getSupportedControls().contains(oid);
+    }
+
+    /**
+     * Returns the configured base DN and additional base DNs, leaving out those found inside another one.
+     *
+     * @return base DNs
+     */
+    public List<String> getBaseDns() {
+        List<String> baseDns = new ArrayList<>();
+        Stream.concat(Stream.of(configuration.getBaseDn()), Stream.of(configuration.getAdditionalBaseDns())).
+                forEach(candidate -> {
+                    if (baseDns.stream().noneMatch(baseDn -> isInside(candidate, baseDn))) {
+                        baseDns.removeIf(baseDn -> isInside(baseDn, candidate));
+                        baseDns.add(candidate);
+                    }
+                });
+        return baseDns;
+    }
+
+    /**
+     * Tells whether the given DN is inside any base DN, but not inside any excluded DN.
+     *
+     * @param dn DN
+     * @return whether the given DN is inside any base DN, but not inside any excluded DN
+     */
+    public boolean isInsideBaseDns(final String dn) {
+        return getBaseDns().stream().anyMatch(baseDn -> isInside(dn, baseDn))
+                && Stream.of(configuration.getExcludedDns()).noneMatch(excludedDn -> isInside(dn, excludedDn));
+    }
+
+    /**
+     * Tells whether excluded DNs can be left out by the LDAP server, i.e. whether the LDAP server schema defines both
+     * the entryDN attribute and the dnSubtreeMatch matching rule, as OpenLDAP does.
+     *
+     * @return whether excluded DNs can be left out by the LDAP server
+     */
+    public boolean isDnSubtreeMatchSupported() {
+        Boolean supported = dnSubtreeMatchSupported;
+        if (supported == null) {
+            // the server schema is read, and cached, by the schema operation
+            try {
+                org.ldaptive.schema.Schema ldapSchema = getSchemaOp().serverSchema();
+                supported = ldapSchema.getAttributeType("entryDN") != null
+                        && Optional.ofNullable(ldapSchema.getMatchingRules()).stream().
+                        flatMap(Collection::stream).
+                        filter(rule -> rule.getNames() != null).
+                        flatMap(rule -> Stream.of(rule.getNames())).
+                        anyMatch("dnSubtreeMatch"::equalsIgnoreCase);
+            } catch (LdapException e) {
+                LOG.error(e, "While reading LDAP server schema");
+                return false;
+            }
+            if (!supported) {
+                LOG.warn("dnSubtreeMatch is not supported by the LDAP server, excluded DNs are left out as received");
+            }
+            dnSubtreeMatchSupported = supported;
+        }
+        return supported;
+    }
+
+    /**
+     * Tells whether the given DN is to be left out as received, being inside an excluded DN which the LDAP server
+     * cannot leave out by itself, see {@link #isDnSubtreeMatchSupported()}.
+     *
+     * @param dn DN
+     * @return whether the given DN is to be left out as received
+     */
+    public boolean isExcludedClientSide(final String dn) {
+        return hasClientSideExclusions()
+                && Stream.of(configuration.getExcludedDns()).anyMatch(excludedDn -> isInside(dn, excludedDn));
+    }
+
+    /**
+     * Tells whether excluded DNs are to be left out as received, rather than by the LDAP server.
+     *
+     * @return whether excluded DNs are to be left out as received
+     */
+    public boolean hasClientSideExclusions() {
+        return configuration.getExcludedDns().length > 0 && !isDnSubtreeMatchSupported();
+    }
+
+    /**
+     * Adds to the given filter one clause for each excluded DN, leaving out its entire subtree; the filter is returned
+     * unchanged if the LDAP server does not support dnSubtreeMatch, as entries inside excluded DNs are then to be left
+     * out as received, see {@link #isExcludedClientSide(String)}.
+     *
+     * @param filter LDAP filter
+     * @return LDAP filter with excluded DNs left out
+     */
+    public String withExclusions(final String filter) {
+        String[] excludedDns = configuration.getExcludedDns();
+        if (excludedDns.length == 0 || !isDnSubtreeMatchSupported()) {
+            return filter;
+        }
+
+        StringBuilder builder = new StringBuilder("(&");
+        if (filter.startsWith("(")) {
+            builder.append(filter);
+        } else {
+            builder.append('(').append(filter).append(')');
+        }
+        for (String excludedDn : excludedDns) {
+            builder.append("(!(entryDN:dnSubtreeMatch:=").append(FilterTemplate.encodeValue(excludedDn)).append("))");
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * Sets the given deadline on the given search request, both as server-side time limit and as client-side response
+     * timeout: should the server not enforce the time limit, the client abandons the search one second later.
+     *
+     * @param request search request
+     * @param seconds deadline, in seconds; 0 for none
+     * @return the given search request
+     */
+    public static SearchRequest deadline(final SearchRequest request, final int seconds) {
+        if (seconds > 0) {
+            request.setTimeLimit(Duration.ofSeconds(seconds));
+            request.setResponseTimeout(Duration.ofSeconds(seconds + 1L));
+        }
+        return request;
+    }
+
+    /**
+     * Same as {@link #deadline(SearchRequest, int)}, but with the time left until the given deadline: all the requests
+     * sent to perform the same search, as its pages, are bound to the same deadline.
+     *
+     * @param request search request
+     * @param deadline deadline; null for none
+     * @return the given search request
+     * @throws OperationTimeoutException if the deadline already expired
+     */
+    public static SearchRequest deadline(final SearchRequest request, final Instant deadline) {
+        if (deadline != null) {
+            Duration remaining = Duration.between(Instant.now(), deadline);
+            if (remaining.isNegative() || remaining.isZero()) {
+                throw new OperationTimeoutException("Search deadline expired at " + deadline);
+            }
+            // the server-side time limit is in whole seconds: round up, not to expire before the client does
+            request.setTimeLimit(Duration.ofSeconds((remaining.toMillis() + 999) / 1000));
+            request.setResponseTimeout(remaining.plusSeconds(1));
+        }
+        return request;
+    }
+
+    /**
+     * Sets the configured lookup deadline, if any, on the given search request.
+     *
+     * @param request search request reading single entries
+     * @return the given search request
+     */
+    public SearchRequest lookupDeadline(final SearchRequest request) {
+        return deadline(request, configuration.getLookupTimeLimitSeconds());
+    }
+
+    /**
+     * Searches the subtrees of all base DNs, at the same time, for entries matching the given filter and not inside
+     * any excluded DN.
+     *
+     * @param filter LDAP filter
+     * @param returnAttributes attributes to return
+     * @return entries found under all base DNs
+     * @throws LdapException if any search could not be performed
+     */
+    public List<LdapEntry> searchBaseDns(final String filter, final String... returnAttributes) throws LdapException {
+        return searchBaseDns(null, filter, returnAttributes);
+    }
+
+    /**
+     * Same as {@link #searchBaseDns(String, String...)}, but sending all searches through the given connection, if
+     * any, rather than through pooled connections: this is meant for searches performed while entries are still being
+     * received through such connection, which then need no further pooled connection.
+     *
+     * @param conn connection to send the searches through; null to use pooled connections
+     * @param filter LDAP filter
+     * @param returnAttributes attributes to return
+     * @return entries found under all base DNs
+     * @throws LdapException if any search could not be performed
+     */
+    public List<LdapEntry> searchBaseDns(
+            final Connection conn,
+            final String filter,
+            final String... returnAttributes) throws LdapException {
+
+        List<SearchRequest> requests = getBaseDns().stream().
+                map(baseDn -> lookupDeadline(SearchRequest.builder().
+                dn(baseDn).
+                scope(SearchScope.SUBTREE).
+                filter(withExclusions(filter)).
+                returnAttributes(returnAttributes).
+                build())).
+                collect(Collectors.toList());
+
+        if (conn != null) {
+            // all searches are outstanding at the same time on the given connection
+            List<SearchOperationHandle> handles = new ArrayList<>();
+            for (SearchRequest request : requests) {
+                handles.add(conn.operation(request).throwIf(ResultPredicate.NOT_SUCCESS).send());
+            }
+            List<LdapEntry> entries = new ArrayList<>();
+            for (SearchOperationHandle handle : handles) {
+                entries.addAll(handle.await().getEntries());
+            }
+            entries.removeIf(entry -> isExcludedClientSide(entry.getDn()));
+            return entries;
+        }
+
+        SearchOperation searchOp = SearchOperation.builder().
+                factory(getConnectionFactory()).
+                throwIf(ResultPredicate.NOT_SUCCESS).
+                build();
+        List<LdapEntry> entries = new ArrayList<>();
+        if (requests.size() == 1) {
+            entries.addAll(searchOp.execute(requests.get(0)).getEntries());
+            entries.removeIf(entry -> isExcludedClientSide(entry.getDn()));
+            return entries;
+        }
+
+        List<Future<SearchResponse>> responses = requests.stream().
+                map(request -> getExecutorService().submit(() -> searchOp.execute(request))).
+                collect(Collectors.toList());
+        try {
+            for (Future<SearchResponse> response : responses) {
+                entries.addAll(response.get().getEntries());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LdapException) {
+                throw (LdapException) e.getCause();
+            }
+            throw new ConnectorException("While searching for " + filter, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while searching for " + filter, e);
+        } finally {
+            responses.forEach(response -> response.cancel(true));
+        }
+        entries.removeIf(entry -> isExcludedClientSide(entry.getDn()));
+        return entries;
+    }
+
+    /**
+     * Resolves the DN of the entry having the given attribute value, under any base DN.
+     *
+     * @param attr attribute name
+     * @param value attribute value
+     * @return DN, or null if no entry was found
+     * @throws LdapException if the search could not be performed, or more than one entry was found
+     */
+    public String resolveDn(final String attr, final String value) throws LdapException {
+        List<LdapEntry> entries = searchBaseDns(
+                "(" + attr + "=" + FilterTemplate.encodeValue(value) + ")", ReturnAttributes.NONE.value());
+        if (entries.size() > 1) {
+            throw new LdapException("Found more than one DN for " + attr + "=" + value);
+        }
+        return entries.isEmpty() ? null : entries.get(0).getDn();
+    }
+
+    /**
+     * Finds the entry of the given object class having the given attribute value, under any base DN, by means of a
+     * single search also returning the given attributes.
+     *
+     * @param objectClass object class
+     * @param attr attribute name
+     * @param value attribute value
+     * @param returnAttributes attributes to return
+     * @return entry, or null if no entry was found
+     * @throws LdapException if the search could not be performed, or more than one entry was found
+     */
+    public LdapEntry findEntry(
+            final ObjectClass objectClass,
+            final String attr,
+            final String value,
+            final String... returnAttributes) throws LdapException {
+
+        List<LdapEntry> entries = searchBaseDns(
+                "(&(objectClass=" + ldapObjectClass(objectClass) + ")"
+                + "(" + attr + "=" + FilterTemplate.encodeValue(value) + "))",
+                returnAttributes);
+        if (entries.size() > 1) {
+            throw new LdapException("Found more than one DN for " + attr + "=" + value);
+        }
+        return entries.isEmpty() ? null : entries.get(0);
+    }
+
+    public ExecutorService getExecutorService() {
+        synchronized (configuration) {
+            if (executorService == null) {
+                executorService = Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "ldup-" + configuration.getUrl());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        return executorService;
+    }
+
+    /**
+     * Tells whether group memberships shall be read from the memberOf attribute of accounts: this requires both
+     * the configuration to ask for it and the LDAP server schema to define such attribute.
+     *
+     * @return whether group memberships shall be read from the memberOf attribute
+     */
+    public boolean isMemberOfMode() {
+        if (!configuration.isMemberOfMode()) {
+            return false;
+        }
+
+        Boolean supported = memberOfSupported;
+        if (supported == null) {
+            // the server schema is read, and cached, by the schema operation
+            try {
+                supported = getSchemaOp().serverSchema().getAttributeType(LdUpConstants.MEMBER_OF_ATTR_NAME) != null;
+            } catch (LdapException e) {
+                LOG.error(e, "While reading LDAP server schema");
+                return false;
+            }
+            if (!supported) {
+                LOG.warn("{0} is not defined by the LDAP server schema, searching for groups instead",
+                        LdUpConstants.MEMBER_OF_ATTR_NAME);
+            }
+            memberOfSupported = supported;
+        }
+        return supported;
+    }
+
+    /**
+     * Returns the in-memory group membership index, if enabled and ready; the index is created and started on first
+     * invocation, then restarts by itself upon failure.
+     *
+     * @return group membership index, or empty if disabled or not ready
+     */
+    public Optional<LdUpGroupIndex> getGroupIndex() {
+        if (!configuration.isGroupIndex()) {
+            return Optional.empty();
+        }
+
+        LdUpGroupIndex index;
+        synchronized (configuration) {
+            if (groupIndex == null) {
+                groupIndex = new LdUpGroupIndex(this);
+                groupIndex.start();
+            }
+            index = groupIndex;
+        }
+        return Optional.of(index).filter(LdUpGroupIndex::isReady);
+    }
+
+    /**
+     * Returns the Uid to DN cache, if enabled; the cache is created on first invocation, and its SyncRepl sessions,
+     * if enabled, started then, restarting by themselves upon failure.
+     *
+     * @return Uid to DN cache, or empty if disabled
+     */
+    public Optional<LdUpDnCache> getDnCache() {
+        if (configuration.getDnCacheSize() <= 0) {
+            return Optional.empty();
+        }
+
+        synchronized (configuration) {
+            if (dnCache == null) {
+                dnCache = new LdUpDnCache(this);
+                dnCache.start();
+            }
+            return Optional.of(dnCache);
+        }
+    }
+
+    public void dispose() {
+        synchronized (configuration) {
+            if (groupIndex != null) {
+                groupIndex.stop();
+                groupIndex = null;
+            }
+
+            if (dnCache != null) {
+                dnCache.stop();
+                dnCache = null;
+            }
+
+            if (executorService != null) {
+                executorService.shutdownNow();
+                executorService = null;
+            }
+
+            if (connectionFactory != null && connectionFactory.isInitialized()) {
+                try {
+                    connectionFactory.close();
+                } catch (Exception e) {
+                    LOG.error(e, "While closing the connection factory");
+                }
+            }
+        }
+    }
+
     public boolean isAccount(final ObjectClass objectClass) {
         return objectClass.equals(ObjectClass.ACCOUNT)
                 || configuration.getAccountObjectClass().equals(objectClass.getObjectClassValue());
@@ -191,7 +698,94 @@ public class LdUpUtils {
                 collect(Collectors.toSet()));
     }
 
+    /**
+     * Same as {@link #returnAttributes(OperationOptions)}, but falling back to the attributes returned by default for
+     * the given object class, as defined by {@link LdUpSchemaOp#returnedByDefault(ObjectClass)}, so that binary and
+     * password attributes are only fetched when explicitly requested; all user attributes are asked for if no such
+     * list can be built, and those not returned by default are then dropped when building the connector object, see
+     * {@link #copyAttributes(ObjectClass, LdapEntry, ConnectorObjectBuilder, Optional)}. The id attribute of the given
+     * object class is always asked for, as well as the memberOf attribute when group memberships are requested and
+     * read from there.
+     *
+     * @param objectClass object class
+     * @param options operation options
+     * @return attributes to return
+     */
+    public Set<String> returnAttributes(final ObjectClass objectClass, final OperationOptions options) {
+        Set<String> attrs = returnAttributes(options).orElseGet(() -> {
+            Set<String> returnedByDefault = getSchemaOp().returnedByDefault(objectClass);
+            return returnedByDefault.isEmpty()
+                    ? new HashSet<>(List.of(ReturnAttributes.ALL_USER.value()))
+                    : new HashSet<>(returnedByDefault);
+        });
+        attrs.add(getIdAttribute(objectClass));
+        if (isMemberOfMode() && isGroupsRequested(objectClass, options)) {
+            attrs.add(LdUpConstants.MEMBER_OF_ATTR_NAME);
+        }
+        return attrs;
+    }
+
+    /**
+     * Wraps the value of the given password attribute as GuardedString, decoding the raw bytes received straight into
+     * a character array which is wiped once encrypted, rather than going through an immutable String.
+     *
+     * @param attr password attribute
+     * @return password
+     */
+    protected GuardedString guardedPassword(final LdapAttribute attr) {
+        CharBuffer decoded = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(attr.getBinaryValue()));
+        char[] chars = new char[decoded.remaining()];
+        decoded.get(chars);
+        try {
+            return new GuardedString(chars);
+        } finally {
+            Arrays.fill(chars, '\0');
+            Arrays.fill(decoded.array(), '\0');
+        }
+    }
+
+    /**
+     * Replaces the values of the binary attributes of the given entry exceeding the configured lazy binary threshold
+     * with a reference, i.e. the {@link LdUpConstants#LAZY_BINARY_ATTR_NAME} attribute listing their names; full
+     * values are then read by a follow-up get of the entry by DN.
+     *
+     * @param entry LDAP entry, modified in place
+     * @return the given LDAP entry
+     */
+    public LdapEntry lazyBinary(final LdapEntry entry) {
+        int threshold = configuration.getLazyBinaryThreshold();
+        if (threshold <= 0) {
+            return entry;
+        }
+
+        List<LdapAttribute> large = entry.getAttributes().stream().
+                filter(attr -> attr.isBinary() || getSchemaOp().isBinary(attr.getName())).
+                filter(attr -> attr.getBinaryValues().stream().mapToLong(value -> value.length).sum() > threshold).
+                collect(Collectors.toList());
+        if (!large.isEmpty()) {
+            LOG.ok("Replacing values of {0} of {1} with a reference",
+                    large.stream().map(LdapAttribute::getName).collect(Collectors.toList()), entry.getDn());
+
+            entry.removeAttributes(large);
+            entry.addAttributes(new LdapAttribute(
+                    LdUpConstants.LAZY_BINARY_ATTR_NAME,
+                    large.stream().map(LdapAttribute::getName).toArray(String[]::new)));
+        }
+        return entry;
+    }
+
+    /**
+     * Copies the attributes of the given entry to the given connector object; when no attributes were requested, those
+     * not returned by default, as defined by {@link LdUpSchemaOp#isReturnedByDefault(String)}, are dropped, as all
+     * user attributes might have been asked for.
+     *
+     * @param objectClass object class
+     * @param entry LDAP entry
+     * @param object connector object builder
+     * @param requestedAttributes attributes requested, if any
+     */
     protected void copyAttributes(
+            final ObjectClass objectClass,
             final LdapEntry entry,
             final ConnectorObjectBuilder object,
             final Optional<Set<String>> requestedAttributes) {
@@ -199,10 +793,32 @@ public class LdUpUtils {
         Set<String> returned = new HashSet<>();
 
         entry.getAttributes().forEach(attr -> {
-            if (configuration.getPasswordAttribute().equals(attr.getName())) {
-                object.addAttribute(AttributeBuilder.buildPassword(
-                        new GuardedString(attr.getStringValue().toCharArray())));
-                returned.add(OperationalAttributes.PASSWORD_NAME);
+            if (LdUpConstants.LAZY_BINARY_ATTR_NAME.equals(attr.getName())) {
+                // values replaced by the reference are not to be reported as empty
+                object.addAttribute(AttributeBuilder.build(attr.getName(), attr.getStringValues()));
+                returned.add(attr.getName());
+                returned.addAll(attr.getStringValues());
+            } else if (requestedAttributes.isEmpty()
+                    && !getIdAttribute(objectClass).equalsIgnoreCase(attr.getName())
+                    && !getSchemaOp().isReturnedByDefault(attr.getName())) {
+
+                // all user attributes were asked for, but this is only fetched when explicitly requested
+                LOG.ok("Skipping {0}", attr.getName());
+            } else if (LdUpConstants.MEMBER_OF_ATTR_NAME.equalsIgnoreCase(attr.getName())
+                    && requestedAttributes.map(requested -> !requested.contains(attr.getName())).orElse(false)) {
+
+                // only fetched to read group memberships
+                LOG.ok("Skipping {0}", attr.getName());
+            } else if (configuration.getPasswordAttribute().equals(attr.getName())) {
+                // only fetched when requested, or via *: wrapping as GuardedString means encrypting, so not done
+                // unless the password was requested
+                if (requestedAttributes.map(requested -> requested.contains(attr.getName())).orElse(false)) {
+                    object.addAttribute(AttributeBuilder.buildPassword(guardedPassword(attr)));
+                    returned.add(OperationalAttributes.PASSWORD_NAME);
+                    returned.add(attr.getName());
+                } else {
+                    LOG.ok("Skipping {0}", attr.getName());
+                }
             } else if (configuration.getGroupMemberAttribute().equals(attr.getName())) {
                 if (configuration.isLegacyCompatibilityMode()) {
                     object.addAttribute(AttributeBuilder.build(attr.getName(), attr.getStringValues()));
@@ -232,56 +848,178 @@ public class LdUpUtils {
         });
     }
 
+    /**
+     * Tells whether group memberships shall be returned for objects of the given class.
+     *
+     * @param objectClass object class
+     * @param options operation options
+     * @return whether group memberships shall be returned
+     */
+    public boolean isGroupsRequested(final ObjectClass objectClass, final OperationOptions options) {
+        // not an user, skip
+        if (!isAccount(objectClass)) {
+            return false;
+        }
+
+        // no groups requested, skip
+        return Optional.ofNullable(options.getAttributesToGet()).
+                map(attrs -> Stream.of(attrs).anyMatch(attr -> configuration.isLegacyCompatibilityMode()
+                ? LdUpConstants.LEGACY_GROUPS_ATTR_NAME.equals(attr)
+                : PredefinedAttributes.GROUPS_NAME.equals(attr))).
+                orElse(true);
+    }
+
+    protected void addGroups(final ConnectorObjectBuilder user, final Collection<String> groupDns) {
+        if (configuration.isLegacyCompatibilityMode()) {
+            user.addAttribute(AttributeBuilder.build(LdUpConstants.LEGACY_GROUPS_ATTR_NAME, groupDns));
+        } else {
+            Set<ConnectorObjectReference> groups = groupDns.stream().
+                    map(dn -> new ConnectorObjectReference(new ConnectorObjectBuilder().
+                    setName(dn).
+                    setObjectClass(new ObjectClass(configuration.getGroupObjectClass())).
+                    buildIdentification())).
+                    collect(Collectors.toSet());
+            user.addAttribute(AttributeBuilder.build(PredefinedAttributes.GROUPS_NAME, groups));
+        }
+    }
+
     protected void addAccountGroups(
             final ObjectClass objectClass,
             final String userDn,
             final ConnectorObjectBuilder user,
             final OperationOptions options) {
 
-        // not an user, skip
-        if (!isAccount(objectClass)) {
+        addAccountGroups(null, objectClass, userDn, user, options);
+    }
+
+    /**
+     * Adds the group memberships of the given user, searching for groups through the given connection, if any.
+     *
+     * @param conn connection to search for groups through; null to use a pooled connection
+     * @param objectClass object class
+     * @param userDn user DN
+     * @param user user object builder
+     * @param options operation options
+     * @throws ConnectorException if groups could not be searched
+     */
+    public void addAccountGroups(
+            final Connection conn,
+            final ObjectClass objectClass,
+            final String userDn,
+            final ConnectorObjectBuilder user,
+            final OperationOptions options) {
+
+        if (!isGroupsRequested(objectClass, options)) {
             return;
         }
 
-        // no groups requested, skip
-        if (Optional.ofNullable(options.getAttributesToGet()).
-                map(attrs -> Stream.of(attrs).noneMatch(attr -> configuration.isLegacyCompatibilityMode()
-                ? LdUpConstants.LEGACY_GROUPS_ATTR_NAME.equals(attr)
-                : PredefinedAttributes.GROUPS_NAME.equals(attr))).
-                orElse(false)) {
-
+        Optional<LdUpGroupIndex> index = getGroupIndex();
+        if (index.isPresent()) {
+            addGroups(user, index.get().getGroups(userDn));
             return;
         }
 
         try {
-            SearchResponse response = SearchOperation.builder().
-                    factory(getConnectionFactory()).
-                    throwIf(ResultPredicate.NOT_SUCCESS).
-                    build().execute(
-                            SearchRequest.builder().
-                                    dn(configuration.getBaseDn()).
-                                    scope(SearchScope.SUBTREE).
-                                    filter("(&(objectClass=" + configuration.getGroupObjectClass() + ")"
-                                            + "(" + configuration.getGroupMemberAttribute() + "=" + userDn + "))").
-                                    returnAttributes(ReturnAttributes.NONE.value()).
-                                    build());
-
-            if (configuration.isLegacyCompatibilityMode()) {
-                user.addAttribute(AttributeBuilder.build(
-                        LdUpConstants.LEGACY_GROUPS_ATTR_NAME,
-                        response.getEntryDns()));
-            } else {
-                Set<ConnectorObjectReference> groups = response.getEntries().stream().
-                        map(LdapEntry::getDn).
-                        map(dn -> new ConnectorObjectReference(new ConnectorObjectBuilder().
-                        setName(dn).
-                        setObjectClass(new ObjectClass(configuration.getGroupObjectClass())).
-                        buildIdentification())).
-                        collect(Collectors.toSet());
-                user.addAttribute(AttributeBuilder.build(PredefinedAttributes.GROUPS_NAME, groups));
-            }
+            addGroups(user, searchBaseDns(
+                    conn,
+                    "(&(objectClass=" + configuration.getGroupObjectClass() + ")"
+                    + "(" + configuration.getGroupMemberAttribute() + "=" + FilterTemplate.encodeValue(userDn) + "))",
+                    ReturnAttributes.NONE.value()).stream().
+                    map(LdapEntry::getDn).
+                    collect(Collectors.toCollection(LinkedHashSet::new)));
         } catch (LdapException e) {
-            LOG.error(e, "While searching groups for {0}", userDn);
+            throw new ConnectorException("While searching groups for " + userDn, e);
+        }
+    }
+
+    protected void addMemberOfGroups(
+            final ObjectClass objectClass,
+            final LdapEntry entry,
+            final ConnectorObjectBuilder user,
+            final OperationOptions options) {
+
+        if (isGroupsRequested(objectClass, options)) {
+            addGroups(user, Optional.ofNullable(entry.getAttribute(LdUpConstants.MEMBER_OF_ATTR_NAME)).
+                    map(LdapAttribute::getStringValues).
+                    orElseGet(Set::of));
+        }
+    }
+
+    /**
+     * Adds group memberships to several users at once: users are split in chunks of the configured group batch size,
+     * and the groups of each chunk are found with a single search.
+     *
+     * @param objectClass object class
+     * @param users pairs of user DN and object builder
+     * @param options operation options
+     * @throws ConnectorException if groups could not be searched
+     */
+    public void addAccountGroups(
+            final ObjectClass objectClass,
+            final List<Pair<String, ConnectorObjectBuilder>> users,
+            final OperationOptions options) {
+
+        addAccountGroups(null, objectClass, users, options);
+    }
+
+    /**
+     * Same as {@link #addAccountGroups(ObjectClass, List, OperationOptions)}, but searching for groups through the
+     * given connection, if any.
+     *
+     * @param conn connection to search for groups through; null to use pooled connections
+     * @param objectClass object class
+     * @param users pairs of user DN and object builder
+     * @param options operation options
+     * @throws ConnectorException if groups could not be searched
+     */
+    public void addAccountGroups(
+            final Connection conn,
+            final ObjectClass objectClass,
+            final List<Pair<String, ConnectorObjectBuilder>> users,
+            final OperationOptions options) {
+
+        if (users.isEmpty() || !isGroupsRequested(objectClass, options)) {
+            return;
+        }
+
+        // groups were already read from memberOf
+        if (isMemberOfMode()) {
+            return;
+        }
+
+        Optional<LdUpGroupIndex> index = getGroupIndex();
+        if (index.isPresent()) {
+            users.forEach(user -> addGroups(user.second, index.get().getGroups(user.first)));
+            return;
+        }
+
+        int batchSize = Math.max(1, configuration.getGroupBatchSize());
+        for (int i = 0; i < users.size(); i += batchSize) {
+            List<Pair<String, ConnectorObjectBuilder>> chunk = users.subList(i, Math.min(i + batchSize, users.size()));
+
+            Map<String, Set<String>> memberships = new HashMap<>();
+            StringBuilder filter = new StringBuilder("(&(objectClass=").
+                    append(configuration.getGroupObjectClass()).append(")(|");
+            chunk.forEach(user -> {
+                memberships.put(normalizeDn(user.first), new HashSet<>());
+                filter.append('(').append(configuration.getGroupMemberAttribute()).append('=').
+                        append(FilterTemplate.encodeValue(user.first)).append(')');
+            });
+            filter.append("))");
+
+            try {
+                searchBaseDns(conn, filter.toString(), configuration.getGroupMemberAttribute()).
+                        forEach(group -> Optional.ofNullable(
+                        group.getAttribute(configuration.getGroupMemberAttribute())).
+                        ifPresent(members -> members.getStringValues().forEach(member -> Optional.ofNullable(
+                        memberships.get(normalizeDn(member))).
+                        ifPresent(groups -> groups.add(group.getDn())))));
+
+                chunk.forEach(user -> addGroups(user.second, memberships.get(normalizeDn(user.first))));
+            } catch (LdapException e) {
+                throw new ConnectorException("While searching groups for "
+                        + chunk.stream().map(user -> user.first).collect(Collectors.toList()), e);
+            }
         }
     }
 
@@ -291,13 +1029,38 @@ public class LdUpUtils {
             final LdapEntry entry,
             final OperationOptions options) {
 
+        return connectorObjectBuilder(objectClass, uid, entry, options, true);
+    }
+
+    /**
+     * Builds a connector object out of the given entry.
+     *
+     * @param objectClass object class
+     * @param uid object uid
+     * @param entry LDAP entry
+     * @param options operation options
+     * @param withGroups whether group memberships shall be searched now; if not, the caller is expected to invoke
+     * {@link #addAccountGroups(ObjectClass, List, OperationOptions)} later
+     * @return connector object builder
+     */
+    public ConnectorObjectBuilder connectorObjectBuilder(
+            final ObjectClass objectClass,
+            final Uid uid,
+            final LdapEntry entry,
+            final OperationOptions options,
+            final boolean withGroups) {
+
         ConnectorObjectBuilder object = new ConnectorObjectBuilder().
                 setObjectClass(objectClass).
                 setUid(uid).
                 setName(entry.getDn());
 
-        copyAttributes(entry, object, returnAttributes(options));
-        addAccountGroups(objectClass, entry.getDn(), object, options);
+        copyAttributes(objectClass, entry, object, returnAttributes(options));
+        if (isMemberOfMode()) {
+            addMemberOfGroups(objectClass, entry, object, options);
+        } else if (withGroups) {
+            addAccountGroups(objectClass, entry.getDn(), object, options);
+        }
 
         return object;
     }
@@ -18,6 +18,7 @@ package net.tirasa.connid.bundles.ldup.modify;
 import static net.tirasa.connid.bundles.ldup.modify.LdUpCreateOp.LOG;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -25,6 +26,8 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import net.tirasa.connid.bundles.ldup.LdUpConstants;
+import net.tirasa.connid.bundles.ldup.LdUpDnCache;
+import net.tirasa.connid.bundles.ldup.LdUpGroupIndex;
 import net.tirasa.connid.bundles.ldup.LdUpUtils;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.security.GuardedString;
@@ -39,17 +42,20 @@ import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.PredefinedAttributes;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.ldaptive.AttributeModification;
+import org.ldaptive.FilterTemplate;
 import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
 import org.ldaptive.ModifyOperation;
 import org.ldaptive.ModifyRequest;
+import org.ldaptive.Result;
+import org.ldaptive.ResultCode;
 import org.ldaptive.ReturnAttributes;
 import org.ldaptive.SearchOperation;
 import org.ldaptive.SearchRequest;
 import org.ldaptive.SearchResponse;
 import org.ldaptive.SearchScope;
-import org.ldaptive.auth.SearchDnResolver;
-import org.ldaptive.auth.User;
+import org.ldaptive.control.RequestControl;
 import org.ldaptive.extended.ExtendedOperation;
 import org.ldaptive.extended.PasswordModifyRequest;
 import org.ldaptive.handler.ResultPredicate;
@@ -92,48 +98,147 @@ abstract class AbstractLdUpModifyOp {
     }
 
     protected String findDn(final ObjectClass objectClass, final Uid uid) {
+        return findEntry(objectClass, uid).getDn();
+    }
+
+    /**
+     * Finds the entry for the given uid; when group memberships are read from memberOf, the returned entry for an
+     * account also carries such attribute, so that {@link #findGroups(LdapEntry)} needs no further search.
+     *
+     * The entry is found by a single search of the base DNs for the object class and id attribute value; when the Uid
+     * to DN cache is enabled, a DN cached for the same object class is trusted as is, with no round trip, while the
+     * SyncRepl sessions invalidating the cache are running and no attribute of the entry is needed: should the DN be
+     * stale nonetheless, the request sent for it fails and {@link #failure} reports the uid as unknown. Otherwise, the
+     * cached DN is verified by reading the entry with the same filter and, should the DN be stale, the cached
+     * resolution is dropped and the base DNs are searched as usual.
+     *
+     * @param objectClass object class
+     * @param uid uid
+     * @return entry
+     */
+    protected LdapEntry findEntry(final ObjectClass objectClass, final Uid uid) {
         String idAttr = ldUpUtils.getIdAttribute(objectClass);
-        String dn = null;
         if (LdUpUtils.isDNAttribute(idAttr)) {
-            dn = uid.getUidValue();
-        } else {
-            try {
-                SearchDnResolver dnResolver = SearchDnResolver.builder().
-                        factory(ldUpUtils.getConnectionFactory()).
-                        dn(ldUpUtils.getConfiguration().getBaseDn()).
-                        subtreeSearch(true).
-                        filter("(" + idAttr + "={user})").
-                        build();
-                dn = dnResolver.resolve(new User(uid.getUidValue()));
-            } catch (LdapException e) {
-                throw new ConnectorException("While resolving dn for " + uid.getUidValue(), e);
+            return read(objectClass, uid.getUidValue(), null).orElseThrow(() -> new ConnectorException(
+                    "No entry found for " + uid.getUidValue()
+                    + " and objectClass" + ldUpUtils.ldapObjectClass(objectClass)));
+        }
+
+        Optional<LdUpDnCache> dnCache = ldUpUtils.getDnCache();
+        LdUpDnCache.Resolution cached = dnCache.map(cache -> cache.get(idAttr, uid.getUidValue())).orElse(null);
+        if (cached != null) {
+            if (cached.isUnknown(ldUpUtils.ldapObjectClass(objectClass))) {
+                throw new UnknownUidException(uid, objectClass);
+            }
+
+            if (cached.isKnown(ldUpUtils.ldapObjectClass(objectClass))
+                    && dnCache.get().isLive()
+                    && !(ldUpUtils.isAccount(objectClass) && ldUpUtils.isMemberOfMode())) {
+
+                return LdapEntry.builder().dn(cached.getDn()).build();
+            }
+
+            if (cached.getDn() != null) {
+                Optional<LdapEntry> entry = read(objectClass, cached.getDn(), uid);
+                if (entry.isPresent()) {
+                    return entry.get();
+                }
+                dnCache.get().remove(idAttr, uid.getUidValue());
             }
         }
 
-        if (dn == null) {
+        LdapEntry entry;
+        try {
+            entry = ldUpUtils.findEntry(objectClass, idAttr, uid.getUidValue(), returnAttributes(objectClass));
+        } catch (LdapException e) {
+            throw new ConnectorException("While resolving dn for " + uid.getUidValue(), e);
+        }
+
+        if (entry == null) {
+            dnCache.ifPresent(cache -> cache.putUnknown(
+                    idAttr, uid.getUidValue(), ldUpUtils.ldapObjectClass(objectClass)));
             throw new UnknownUidException(uid, objectClass);
         }
 
+        dnCache.ifPresent(cache -> cache.put(
+                idAttr, uid.getUidValue(), entry.getDn(), ldUpUtils.ldapObjectClass(objectClass)));
+        return entry;
+    }
+
+    /**
+     * Translates the given failure of a request sent for the entry found for the given uid: should the entry not exist,
+     * as when its DN was trusted from the Uid to DN cache but had just been renamed or deleted by others, whatever was
+     * cached is dropped and the uid is reported as unknown.
+     *
+     * @param objectClass object class
+     * @param uid uid
+     * @param dn DN the request was sent for
+     * @param message message, for any other failure
+     * @param e failure
+     * @return exception to throw
+     */
+    protected ConnectorException failure(
+            final ObjectClass objectClass,
+            final Uid uid,
+            final String dn,
+            final String message,
+            final LdapException e) {
+
+        if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+            return new ConnectorException(message, e);
+        }
+
+        LOG.ok("No entry found at {0} for {1}", dn, uid.getUidValue());
+        ldUpUtils.getDnCache().ifPresent(cache -> {
+            cache.remove(dn);
+
+            String idAttr = ldUpUtils.getIdAttribute(objectClass);
+            if (!LdUpUtils.isDNAttribute(idAttr)) {
+                cache.remove(idAttr, uid.getUidValue());
+            }
+        });
+        return new UnknownUidException(uid, objectClass);
+    }
+
+    protected String[] returnAttributes(final ObjectClass objectClass) {
+        return ldUpUtils.isAccount(objectClass) && ldUpUtils.isMemberOfMode()
+                ? new String[] { LdUpConstants.MEMBER_OF_ATTR_NAME }
+                : ReturnAttributes.NONE.value();
+    }
+
+    /**
+     * Reads the entry with the given DN, provided that it belongs to the given object class and, if given, that it
+     * still carries the given uid.
+     *
+     * @param objectClass object class
+     * @param dn DN
+     * @param uid uid, or null to skip its check
+     * @return entry, or empty if not found
+     */
+    protected Optional<LdapEntry> read(final ObjectClass objectClass, final String dn, final Uid uid) {
+        String filter = "objectClass=" + ldUpUtils.ldapObjectClass(objectClass);
+        if (uid != null) {
+            filter = "(&(" + filter + ")"
+                    + "(" + ldUpUtils.getIdAttribute(objectClass) + "="
+                    + FilterTemplate.encodeValue(uid.getUidValue()) + "))";
+        }
+
         try {
             SearchResponse response = SearchOperation.builder().
                     factory(ldUpUtils.getConnectionFactory()).
-                    throwIf(ResultPredicate.NOT_SUCCESS).
-                    build().execute(
+                    throwIf(result -> result.getResultCode() != ResultCode.SUCCESS
+                    && result.getResultCode() != ResultCode.NO_SUCH_OBJECT).
+                    build().execute(ldUpUtils.lookupDeadline(
                             SearchRequest.builder().
                                     dn(dn).
                                     scope(SearchScope.OBJECT).
-                                    filter("objectClass=" + ldUpUtils.ldapObjectClass(objectClass)).
-                                    returnAttributes(ReturnAttributes.NONE.value()).
-                                    build());
-            if (response.getEntries().isEmpty()) {
-                throw new ConnectorException("No entry found for " + dn
-                        + " and objectClass" + ldUpUtils.ldapObjectClass(objectClass));
-            }
+                                    filter(filter).
+                                    returnAttributes(returnAttributes(objectClass)).
+                                    build()));
+            return Optional.ofNullable(response.getEntry());
         } catch (LdapException e) {
             throw new ConnectorException("While reading " + dn, e);
         }
-
-        return dn;
     }
 
     protected Uid uid(final ObjectClass objectClass, final String dn) {
@@ -142,45 +247,113 @@ abstract class AbstractLdUpModifyOp {
             return new Uid(dn);
         }
 
+        Optional<LdUpDnCache> dnCache = ldUpUtils.getDnCache();
+        Optional<String> cached = dnCache.flatMap(cache -> cache.getValue(idAttr, dn));
+        if (cached.isPresent()) {
+            return new Uid(cached.get());
+        }
+
         try {
             SearchResponse response = SearchOperation.builder().
                     factory(ldUpUtils.getConnectionFactory()).
                     throwIf(ResultPredicate.NOT_SUCCESS).
-                    build().execute(
+                    build().execute(ldUpUtils.lookupDeadline(
                             SearchRequest.builder().
                                     dn(dn).
                                     scope(SearchScope.OBJECT).
                                     filter("objectClass=" + ldUpUtils.ldapObjectClass(objectClass)).
                                     returnAttributes(idAttr).
-                                    build());
+                                    build()));
             if (response.getEntries().isEmpty()) {
                 throw new ConnectorException("No entry found for " + dn
                         + " and objectClass" + ldUpUtils.ldapObjectClass(objectClass));
             }
-            return new Uid(response.getEntry().getAttribute(idAttr).getStringValue());
+            String value = response.getEntry().getAttribute(idAttr).getStringValue();
+            dnCache.ifPresent(cache -> cache.put(idAttr, value, dn, ldUpUtils.ldapObjectClass(objectClass)));
+            return new Uid(value);
         } catch (LdapException e) {
             throw new ConnectorException("While reading " + dn, e);
         }
     }
 
+    /**
+     * Returns the post-read control asking for the id attribute, to be attached to add, modify and modify DN
+     * requests, if the id attribute is not a DN attribute and the LDAP server supports such control.
+     *
+     * @param objectClass object class
+     * @return post-read control, or none
+     */
+    protected RequestControl[] postRead(final ObjectClass objectClass) {
+        String idAttr = ldUpUtils.getIdAttribute(objectClass);
+        return !LdUpUtils.isDNAttribute(idAttr) && ldUpUtils.isControlSupported(LdUpPostReadControl.OID)
+                ? new RequestControl[] { new LdUpPostReadControl(idAttr) }
+                : new RequestControl[0];
+    }
+
+    /**
+     * Returns the uid for the given DN, from the post-read control returned with the given result, if any, or as
+     * {@link #uid(ObjectClass, String)} otherwise.
+     *
+     * @param objectClass object class
+     * @param dn DN
+     * @param result result of the last add, modify or modify DN request performed on the given DN, if any
+     * @return uid
+     */
+    protected Uid uid(final ObjectClass objectClass, final String dn, final Result result) {
+        String idAttr = ldUpUtils.getIdAttribute(objectClass);
+        Optional<String> value = Optional.ofNullable(result).
+                filter(r -> !LdUpUtils.isDNAttribute(idAttr)).
+                flatMap(LdUpPostReadControl::entry).
+                map(entry -> entry.getAttribute(idAttr)).
+                map(LdapAttribute::getStringValue);
+        if (value.isEmpty()) {
+            return uid(objectClass, dn);
+        }
+
+        ldUpUtils.getDnCache().ifPresent(cache -> cache.put(
+                idAttr, value.get(), dn, ldUpUtils.ldapObjectClass(objectClass)));
+        return new Uid(value.get());
+    }
+
+    /**
+     * Drops from the Uid to DN cache whatever was cached for the given DN, if the given attributes were modified
+     * there and include the id attribute.
+     *
+     * @param objectClass object class
+     * @param dn DN
+     * @param ldapAttrs names of the modified attributes
+     */
+    protected void idModified(final ObjectClass objectClass, final String dn, final Collection<String> ldapAttrs) {
+        String idAttr = ldUpUtils.getIdAttribute(objectClass);
+        if (ldapAttrs.stream().anyMatch(idAttr::equalsIgnoreCase)) {
+            ldUpUtils.getDnCache().ifPresent(cache -> cache.remove(dn));
+        }
+    }
+
+    protected Set<String> findGroups(final LdapEntry entry) {
+        if (ldUpUtils.isMemberOfMode()) {
+            return Optional.ofNullable(entry.getAttribute(LdUpConstants.MEMBER_OF_ATTR_NAME)).
+                    map(attr -> new HashSet<>(attr.getStringValues())).
+                    orElseGet(HashSet::new);
+        }
+        return findGroups(entry.getDn());
+    }
+
     protected Set<String> findGroups(final String dn) {
+        Optional<LdUpGroupIndex> index = ldUpUtils.getGroupIndex();
+        if (index.isPresent()) {
+            return index.get().getGroups(dn);
+        }
+
         Set<String> groups = new HashSet<>();
 
         try {
-            SearchResponse response = SearchOperation.builder().
-                    factory(ldUpUtils.getConnectionFactory()).
-                    throwIf(ResultPredicate.NOT_SUCCESS).
-                    build().execute(
-                            SearchRequest.builder().
-                                    dn(ldUpUtils.getConfiguration().getBaseDn()).
-                                    scope(SearchScope.SUBTREE).
-                                    filter("(&(objectClass="
-                                            + ldUpUtils.getConfiguration().getGroupObjectClass() + ")"
-                                            + "(" + ldUpUtils.getConfiguration().getGroupMemberAttribute()
-                                            + "=" + dn + "))").
-                                    returnAttributes(ReturnAttributes.NONE.value()).
-                                    build());
-            groups.addAll(response.getEntryDns());
+            ldUpUtils.searchBaseDns(
+                    "(&(objectClass=" + ldUpUtils.getConfiguration().getGroupObjectClass() + ")"
+                    + "(" + ldUpUtils.getConfiguration().getGroupMemberAttribute() + "="
+                    + FilterTemplate.encodeValue(dn) + "))",
+                    ReturnAttributes.NONE.value()).
+                    forEach(group -> groups.add(group.getDn()));
         } catch (LdapException e) {
             throw new ConnectorException("While searching for " + dn + " group memberships", e);
         }
@@ -202,6 +375,8 @@ abstract class AbstractLdUpModifyOp {
                                                 ldUpUtils.getConfiguration().getGroupMemberAttribute(),
                                                 dn))).
                                 build());
+                ldUpUtils.getGroupIndex().
+                        ifPresent(index -> index.memberModified(group, dn, modType));
             } catch (LdapException e) {
                 throw new ConnectorException("While performing " + modType + " for " + dn + " on " + group, e);
             }
@@ -29,12 +29,10 @@ import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.spi.operations.CreateOp;
 import org.ldaptive.AddOperation;
 import org.ldaptive.AddRequest;
+import org.ldaptive.AddResponse;
 import org.ldaptive.AttributeModification;
 import org.ldaptive.LdapAttribute;
 import org.ldaptive.LdapException;
-import org.ldaptive.SearchOperation;
-import org.ldaptive.SearchRequest;
-import org.ldaptive.SearchResponse;
 import org.ldaptive.handler.ResultPredicate;
 
 public class LdUpCreateOp extends AbstractLdUpModifyOp implements CreateOp {
@@ -57,28 +55,24 @@ public class LdUpCreateOp extends AbstractLdUpModifyOp implements CreateOp {
         ProcessResult result = process(objectClass, createAttributes);
         result.ldapAttrs.add(new LdapAttribute("objectClass", ldUpUtils.ldapObjectClass(objectClass)));
 
-        // 1. create
-        Uid uid;
+        // 1. create, reading the uid back via post-read control, if supported
+        AddResponse response;
         try {
-            AddOperation.builder().
+            response = AddOperation.builder().
                     factory(ldUpUtils.getConnectionFactory()).
                     throwIf(ResultPredicate.NOT_SUCCESS).
                     build().
                     execute(AddRequest.builder().
                             dn(name.getNameValue()).
                             attributes(result.ldapAttrs).
+                            controls(postRead(objectClass)).
                             build());
-
-            SearchResponse response = SearchOperation.builder().
-                    factory(ldUpUtils.getConnectionFactory()).
-                    throwIf(ResultPredicate.NOT_SUCCESS).
-                    build().execute(SearchRequest.objectScopeSearchRequest(
-                            name.getNameValue(), new String[] { ldUpUtils.getIdAttribute(objectClass) }));
-            uid = new Uid(response.getEntry().
-                    getAttribute(ldUpUtils.getIdAttribute(objectClass)).getStringValue());
         } catch (LdapException e) {
             throw new ConnectorException("Create error", e);
         }
+        // whatever was cached for an entry previously found at the same DN is stale
+        ldUpUtils.getDnCache().ifPresent(cache -> cache.remove(name.getNameValue()));
+        Uid uid = uid(objectClass, name.getNameValue(), response);
 
         if (ldUpUtils.isAccount(objectClass)) {
             // 2. set password if provided
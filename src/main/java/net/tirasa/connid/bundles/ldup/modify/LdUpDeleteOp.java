@@ -16,7 +16,6 @@
 package net.tirasa.connid.bundles.ldup.modify;
 
 import net.tirasa.connid.bundles.ldup.LdUpUtils;
-import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.Uid;
@@ -24,6 +23,7 @@ import org.identityconnectors.framework.spi.operations.DeleteOp;
 import org.ldaptive.AttributeModification;
 import org.ldaptive.DeleteOperation;
 import org.ldaptive.DeleteRequest;
+import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
 import org.ldaptive.handler.ResultPredicate;
 
@@ -39,10 +39,11 @@ public class LdUpDeleteOp extends AbstractLdUpModifyOp implements DeleteOp {
             final Uid uid,
             final OperationOptions options) {
 
-        String dn = findDn(objectClass, uid);
+        LdapEntry entry = findEntry(objectClass, uid);
+        String dn = entry.getDn();
 
         if (ldUpUtils.isAccount(objectClass)) {
-            groupMod(dn, findGroups(dn), AttributeModification.Type.DELETE);
+            groupMod(dn, findGroups(entry), AttributeModification.Type.DELETE);
         }
 
         try {
@@ -53,7 +54,16 @@ public class LdUpDeleteOp extends AbstractLdUpModifyOp implements DeleteOp {
                             dn(dn).
                             build());
         } catch (LdapException e) {
-            throw new ConnectorException("While deleting " + dn, e);
+            throw failure(objectClass, uid, dn, "While deleting " + dn, e);
         }
+
+        ldUpUtils.getDnCache().ifPresent(cache -> {
+            cache.remove(dn);
+
+            String idAttr = ldUpUtils.getIdAttribute(objectClass);
+            if (!LdUpUtils.isDNAttribute(idAttr)) {
+                cache.putUnknown(idAttr, uid.getUidValue(), ldUpUtils.ldapObjectClass(objectClass));
+            }
+        });
     }
 }
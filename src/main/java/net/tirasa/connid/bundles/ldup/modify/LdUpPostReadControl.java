@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2025 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ldup.modify;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.Result;
+import org.ldaptive.asn1.ConstructedDEREncoder;
+import org.ldaptive.asn1.DERBuffer;
+import org.ldaptive.asn1.DEREncoder;
+import org.ldaptive.asn1.DefaultDERBuffer;
+import org.ldaptive.asn1.IntegerType;
+import org.ldaptive.asn1.OctetStringType;
+import org.ldaptive.asn1.UniversalDERTag;
+import org.ldaptive.control.AbstractControl;
+import org.ldaptive.control.GenericControl;
+import org.ldaptive.control.RequestControl;
+import org.ldaptive.control.ResponseControl;
+
+/**
+ * LDAP post-read control, as defined by RFC 4527: attached to add, modify and modify DN requests, asks the LDAP server
+ * to return the given attributes of the entry as it is once the request has been processed.
+ *
+ * The response control value is a SearchResultEntry; since ldaptive does not know this control, it is received as
+ * {@link GenericControl} and then decoded via {@link #entry(Result)}.
+ */
+public class LdUpPostReadControl extends AbstractControl implements RequestControl, ResponseControl {
+
+    public static final String OID = "1.3.6.1.1.13.2";
+
+    private static final int HASH_CODE_SEED = 10_501;
+
+    private final String[] attributes;
+
+    private LdapEntry entry;
+
+    public LdUpPostReadControl(final String... attributes) {
+        super(OID);
+        this.attributes = attributes;
+    }
+
+    public LdapEntry getEntry() {
+        return entry;
+    }
+
+    @Override
+    public boolean hasValue() {
+        return true;
+    }
+
+    @Override
+    public byte[] encode() {
+        return new ConstructedDEREncoder(
+                UniversalDERTag.SEQ,
+                Stream.of(attributes).map(OctetStringType::new).toArray(DEREncoder[]::new)).encode();
+    }
+
+    @Override
+    public void decode(final DERBuffer encoded) {
+        byte[] value = encoded.getRemainingBytes();
+        // wrap the SearchResultEntry into an LDAPMessage, as expected by the LdapEntry parser
+        entry = new LdapEntry(new DefaultDERBuffer(
+                new ConstructedDEREncoder(UniversalDERTag.SEQ, new IntegerType(0), () -> value).encode()));
+    }
+
+    /**
+     * Extracts the entry returned by the LDAP server with the given result, if any.
+     *
+     * @param result result of an add, modify or modify DN request
+     * @return entry, or empty if the post-read control was not returned
+     */
+    public static Optional<LdapEntry> entry(final Result result) {
+        return Optional.ofNullable(result.getControl(OID)).
+                filter(GenericControl.class::isInstance).
+                map(control -> {
+                    LdUpPostReadControl postRead = new LdUpPostReadControl();
+                    postRead.decode(new DefaultDERBuffer(((GenericControl) control).encode()));
+                    return postRead.getEntry();
+                });
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof LdUpPostReadControl && super.equals(o)) {
+            return Arrays.equals(attributes, ((LdUpPostReadControl) o).attributes);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return HASH_CODE_SEED + 31 * getOID().hashCode() + Arrays.hashCode(attributes);
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + ", attributes=" + Arrays.toString(attributes);
+    }
+}
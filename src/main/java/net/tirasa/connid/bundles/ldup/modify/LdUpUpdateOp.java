@@ -44,11 +44,13 @@ import org.identityconnectors.framework.spi.operations.UpdateDeltaOp;
 import org.identityconnectors.framework.spi.operations.UpdateOp;
 import org.ldaptive.AttributeModification;
 import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
 import org.ldaptive.ModifyDnOperation;
 import org.ldaptive.ModifyDnRequest;
 import org.ldaptive.ModifyOperation;
 import org.ldaptive.ModifyRequest;
+import org.ldaptive.Result;
 import org.ldaptive.dn.Dn;
 import org.ldaptive.handler.ResultPredicate;
 
@@ -81,8 +83,11 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
             final Set<Attribute> replaceAttributes,
             final OperationOptions options) {
 
-        AtomicReference<String> dn = new AtomicReference<>(findDn(objectClass, uid));
+        LdapEntry entry = findEntry(objectClass, uid);
+        AtomicReference<String> dn = new AtomicReference<>(entry.getDn());
         AtomicReference<String> prevDn = new AtomicReference<>();
+        // result of the last modify or modify DN request, possibly carrying the post-read control
+        AtomicReference<Result> postRead = new AtomicReference<>();
 
         // extract the Name attribute, if any and other than the current dn, to be used to rename the entry later
         Optional<Name> newName = Optional.ofNullable(AttributeUtil.getNameFromAttributes(replaceAttributes)).
@@ -94,13 +99,13 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
         ProcessResult result = process(objectClass, updateAttributes);
 
         Set<String> groupsBefore = ldUpUtils.isAccount(objectClass)
-                ? findGroups(dn.get())
+                ? findGroups(entry)
                 : Set.of();
 
         // 1. update
         if (!result.ldapAttrs.isEmpty()) {
             try {
-                ModifyOperation.builder().
+                postRead.set(ModifyOperation.builder().
                         factory(ldUpUtils.getConnectionFactory()).
                         throwIf(ResultPredicate.NOT_SUCCESS).
                         build().execute(ModifyRequest.builder().
@@ -109,17 +114,20 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
                                         map(ldapAttr -> new AttributeModification(
                                         AttributeModification.Type.REPLACE, ldapAttr)).
                                         collect(Collectors.toList())).
-                                build());
+                                controls(postRead(objectClass)).
+                                build()));
             } catch (LdapException e) {
-                throw new ConnectorException("Update error", e);
+                throw failure(objectClass, uid, dn.get(), "Update error", e);
             }
+            idModified(objectClass, dn.get(),
+                    result.ldapAttrs.stream().map(LdapAttribute::getName).collect(Collectors.toList()));
         }
 
         // 2. rename
         newName.ifPresent(name -> {
             Dn newDn = new Dn(name.getNameValue());
             try {
-                ModifyDnOperation.builder().
+                postRead.set(ModifyDnOperation.builder().
                         factory(ldUpUtils.getConnectionFactory()).
                         throwIf(ResultPredicate.NOT_SUCCESS).
                         build().execute(ModifyDnRequest.builder().
@@ -127,10 +135,12 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
                                 newRDN(newDn.getRDn().format()).
                                 superior(newDn.getParent().format()).
                                 delete(true).
-                                build());
+                                controls(postRead(objectClass)).
+                                build()));
 
                 prevDn.set(dn.get());
                 dn.set(name.getNameValue());
+                ldUpUtils.getDnCache().ifPresent(cache -> cache.remove(prevDn.get()));
             } catch (LdapException e) {
                 throw new ConnectorException("Rename error from " + dn + " to " + name, e);
             }
@@ -158,7 +168,7 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
                     groupsToRemove, AttributeModification.Type.DELETE);
         }
 
-        return uid(objectClass, dn.get());
+        return uid(objectClass, dn.get(), postRead.get());
     }
 
     protected ProcessDeltaResult processDelta(final ObjectClass objectClass, final Set<AttributeDelta> modifications) {
@@ -289,8 +299,10 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
                                 modifications(result.modifications).
                                 build());
             } catch (LdapException e) {
-                throw new ConnectorException("Update error", e);
+                throw failure(objectClass, uid, dn, "Update error", e);
             }
+            idModified(objectClass, dn, result.modifications.stream().
+                    map(modification -> modification.getAttribute().getName()).collect(Collectors.toList()));
         }
 
         if (ldUpUtils.isAccount(objectClass)) {
@@ -318,9 +330,10 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
         ProcessResult result = process(objectClass, valuesToAdd);
 
         // 1. update
+        Result postRead = null;
         if (!result.ldapAttrs.isEmpty()) {
             try {
-                ModifyOperation.builder().
+                postRead = ModifyOperation.builder().
                         factory(ldUpUtils.getConnectionFactory()).
                         throwIf(ResultPredicate.NOT_SUCCESS).
                         build().execute(ModifyRequest.builder().
@@ -329,10 +342,13 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
                                         map(ldapAttr -> new AttributeModification(
                                         AttributeModification.Type.ADD, ldapAttr)).
                                         collect(Collectors.toList())).
+                                controls(postRead(objectClass)).
                                 build());
             } catch (LdapException e) {
-                throw new ConnectorException("Update error", e);
+                throw failure(objectClass, uid, dn, "Update error", e);
             }
+            idModified(objectClass, dn,
+                    result.ldapAttrs.stream().map(LdapAttribute::getName).collect(Collectors.toList()));
         }
 
         if (ldUpUtils.isAccount(objectClass)) {
@@ -343,7 +359,7 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
             groupMod(dn, result.groups, AttributeModification.Type.ADD);
         }
 
-        return uid(objectClass, dn);
+        return uid(objectClass, dn, postRead);
     }
 
     @Override
@@ -358,9 +374,10 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
         ProcessResult result = process(objectClass, valuesToRemove);
 
         // 1. update
+        Result postRead = null;
         if (!result.ldapAttrs.isEmpty()) {
             try {
-                ModifyOperation.builder().
+                postRead = ModifyOperation.builder().
                         factory(ldUpUtils.getConnectionFactory()).
                         throwIf(ResultPredicate.NOT_SUCCESS).
                         build().execute(ModifyRequest.builder().
@@ -369,10 +386,13 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
                                         map(ldapAttr -> new AttributeModification(
                                         AttributeModification.Type.DELETE, ldapAttr)).
                                         collect(Collectors.toList())).
+                                controls(postRead(objectClass)).
                                 build());
             } catch (LdapException e) {
-                throw new ConnectorException("Update error", e);
+                throw failure(objectClass, uid, dn, "Update error", e);
             }
+            idModified(objectClass, dn,
+                    result.ldapAttrs.stream().map(LdapAttribute::getName).collect(Collectors.toList()));
         }
 
         if (ldUpUtils.isAccount(objectClass)) {
@@ -388,7 +408,7 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
                                             new LdapAttribute(ldUpUtils.getConfiguration().getPasswordAttribute()))).
                                     build());
                 } catch (LdapException e) {
-                    throw new ConnectorException("Remove password error", e);
+                    throw failure(objectClass, uid, dn, "Remove password error", e);
                 }
             }
 
@@ -396,6 +416,6 @@ public class LdUpUpdateOp extends AbstractLdUpModifyOp implements UpdateOp, Upda
             groupMod(dn, result.groups, AttributeModification.Type.DELETE);
         }
 
-        return uid(objectClass, dn);
+        return uid(objectClass, dn, postRead);
     }
 }
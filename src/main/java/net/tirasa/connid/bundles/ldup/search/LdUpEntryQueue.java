@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2025 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ldup.search;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.handler.LdapEntryHandler;
+
+/**
+ * Hands the entries decoded by ldaptive's message handling threads over to the thread executing the search, which can
+ * then process them while the rest of the search response is still on its way.
+ *
+ * Entries are not retained in the {@link org.ldaptive.SearchResponse}: once consumed, they can be garbage collected.
+ * Adding an entry never blocks, as ldaptive delivers entries on the I/O threads shared by all connections: the number
+ * of entries held is rather bounded by pacing the page requests via {@link #awaitPage()} and {@link #endPage()}, so
+ * that at most {@code lookahead + 1} pages are held at any time; for this reason, searches which can return more than
+ * one entry are always paged, by the caller or else transparently. Such bound relies on the LDAP server honouring the
+ * requested page size: should more than {@code (lookahead + 1) * pageSize} entries be held, the queue is closed and
+ * the search fails, rather than holding an unbounded number of entries. Searches paged by the caller hold up to
+ * {@code lookahead + 1} pages of the page size requested by the caller.
+ *
+ * Once the consumer is done, because it requested to stop or failed, the queue is closed and the entries still being
+ * delivered are discarded.
+ */
+public class LdUpEntryQueue implements LdapEntryHandler {
+
+    private static final LdapEntry END = new LdapEntry();
+
+    private static final LdapEntry PAGE_END = new LdapEntry();
+
+    private static final LdapEntry OVERFLOW = new LdapEntry();
+
+    protected final BlockingQueue<LdapEntry> entries = new LinkedBlockingQueue<>();
+
+    protected final Duration timeout;
+
+    protected final Semaphore pages;
+
+    protected final Instant expiry;
+
+    protected final int capacity;
+
+    // entries received and not consumed yet
+    protected final AtomicInteger held = new AtomicInteger();
+
+    protected volatile boolean closed;
+
+    /**
+     * Creates a queue to which entries are added page by page.
+     *
+     * @param timeout maximum time to wait for the next entry
+     * @param lookahead how many pages can be received while the current one is being consumed
+     * @param pageSize maximum number of entries of each page
+     * @param deadline time by which all entries shall be received, for the whole search; null for none
+     */
+    public LdUpEntryQueue(final Duration timeout, final int lookahead, final int pageSize, final Instant deadline) {
+        this.timeout = timeout;
+        this.pages = new Semaphore(lookahead + 1);
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, (lookahead + 1L) * Math.max(1, pageSize));
+        this.expiry = deadline;
+    }
+
+    /**
+     * Adds the given entry, without ever blocking; the entry is discarded if the queue is closed.
+     *
+     * @param entry entry received
+     * @return null, as the entry is not to be added to the search response
+     */
+    @Override
+    public LdapEntry apply(final LdapEntry entry) {
+        if (!closed) {
+            if (held.incrementAndGet() > capacity) {
+                // more entries than requested: the search fails, rather than holding any number of entries
+                closed = true;
+                entries.clear();
+                entries.add(OVERFLOW);
+            } else {
+                entries.add(entry);
+            }
+        }
+        // the entry was handed over, don't add it to the search response
+        return null;
+    }
+
+    /**
+     * Waits until there is room for one more page, i.e. until the consumer is done with the oldest page.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitPage() throws InterruptedException {
+        pages.acquire();
+    }
+
+    /**
+     * Signals that all the entries of the current page were received.
+     */
+    public void endPage() {
+        entries.add(PAGE_END);
+    }
+
+    /**
+     * Signals that no more entries are going to be received.
+     */
+    public void end() {
+        entries.add(END);
+    }
+
+    protected LdapEntry next() throws InterruptedException {
+        Duration wait = timeout;
+        if (expiry != null) {
+            Duration remaining = Duration.between(Instant.now(), expiry);
+            if (remaining.isNegative() || remaining.isZero()) {
+                throw new OperationTimeoutException("Search deadline expired at " + expiry);
+            }
+            if (wait.isZero() || remaining.compareTo(wait) < 0) {
+                wait = remaining;
+            }
+        }
+
+        if (wait.isZero()) {
+            return entries.take();
+        }
+
+        LdapEntry entry = entries.poll(wait.toMillis(), TimeUnit.MILLISECONDS);
+        if (entry == null) {
+            throw new OperationTimeoutException(wait.equals(timeout)
+                    ? "No search entry received within " + timeout
+                    : "Search deadline expired at " + expiry);
+        }
+        return entry;
+    }
+
+    /**
+     * Passes each received entry to the given consumer, until either the end is signaled or the consumer returns
+     * {@code false}.
+     *
+     * @param consumer entry consumer
+     * @return {@code false} if the consumer requested to stop before the end was reached, {@code true} otherwise
+     * @throws ConnectorException if more entries were received than the pages requested can contain
+     */
+    public boolean drain(final Predicate<LdapEntry> consumer) {
+        try {
+            for (LdapEntry entry = next(); entry != END; entry = next()) {
+                if (entry == PAGE_END) {
+                    pages.release();
+                } else if (entry == OVERFLOW) {
+                    throw new ConnectorException("More than " + capacity + " search entries received ahead of "
+                            + "processing: the LDAP server is not honouring the requested page size");
+                } else {
+                    held.decrementAndGet();
+                    if (!consumer.test(entry)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while waiting for search entries", e);
+        }
+    }
+
+    /**
+     * Discards the entries received and still to be received.
+     */
+    public void close() {
+        closed = true;
+        entries.clear();
+    }
+}
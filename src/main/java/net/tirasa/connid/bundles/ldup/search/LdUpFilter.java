@@ -15,35 +15,133 @@
  */
 package net.tirasa.connid.bundles.ldup.search;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import net.tirasa.connid.bundles.ldup.LdUpUtils;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.ldaptive.FilterTemplate;
 
 /**
  * Encapsulates an LDAP filter.
  *
- * An instance of this class is consists of an optional entry DN and an optional native LDAP filter.
- * The semantics of such an instance is "an LDAP entry with this entry DN (if specified) and matching this
+ * An instance of this class is consists of an optional set of entry DNs and an optional native LDAP filter.
+ * The semantics of such an instance is "an LDAP entry with one of these entry DNs (if specified) and matching this
  * native filter (if specified)".
  */
 public class LdUpFilter {
 
     public static LdUpFilter forEntryDN(final String entryDN) {
-        return new LdUpFilter(null, entryDN);
+        if (entryDN == null) {
+            throw new ConnectorException("Invalid search filter");
+        }
+        return new LdUpFilter((Node) null, Set.of(entryDN));
+    }
+
+    public static LdUpFilter forEntryDNs(final Collection<String> entryDNs) {
+        return new LdUpFilter((Node) null, new LinkedHashSet<>(entryDNs));
     }
 
     public static LdUpFilter forNativeFilter(final String nativeFilter) {
         return new LdUpFilter(nativeFilter, null);
     }
 
-    protected static String combine(final String left, final String right, final char op) {
+    /**
+     * Node of the native filter tree: either a native filter string or two nodes combined by an LDAP operator.
+     *
+     * Combining is constant-time; the tree is flattened (so that nested nodes with the same operator become a
+     * single n-ary one) and serialized only once, when the native filter string is first requested.
+     */
+    protected static final class Node {
+
+        protected final String filter;
+
+        protected final char op;
+
+        protected final Node left;
+
+        protected final Node right;
+
+        protected Node(final String filter) {
+            this.filter = filter;
+            this.op = 0;
+            this.left = null;
+            this.right = null;
+        }
+
+        protected Node(final char op, final Node left, final Node right) {
+            this.filter = null;
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        protected boolean isLeaf() {
+            return op == 0;
+        }
+
+        /**
+         * Collects the operands of this node, descending into nested nodes with the same operator.
+         *
+         * @return operands, in order
+         */
+        protected List<Node> operands() {
+            List<Node> operands = new ArrayList<>();
+            Deque<Node> pending = new ArrayDeque<>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                if (node.op == op) {
+                    pending.push(node.right);
+                    pending.push(node.left);
+                } else {
+                    operands.add(node);
+                }
+            }
+            return operands;
+        }
+
+        protected String serialize() {
+            StringBuilder builder = new StringBuilder();
+            Deque<Object> pending = new ArrayDeque<>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                Object item = pending.pop();
+                if (item instanceof String) {
+                    builder.append((String) item);
+                } else {
+                    Node node = (Node) item;
+                    if (node.isLeaf()) {
+                        if (node.filter.startsWith("(")) {
+                            builder.append(node.filter);
+                        } else {
+                            builder.append('(').append(node.filter).append(')');
+                        }
+                    } else {
+                        builder.append('(').append(node.op);
+                        pending.push(")");
+                        List<Node> operands = node.operands();
+                        for (int i = operands.size() - 1; i >= 0; i--) {
+                            pending.push(operands.get(i));
+                        }
+                    }
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    protected static Node combine(final Node left, final Node right, final char op) {
         if (left != null) {
             if (right != null) {
-                StringBuilder builder = new StringBuilder();
-                builder.append('(');
-                builder.append(op);
-                builder.append(left);
-                builder.append(right);
-                builder.append(')');
-                return builder.toString();
+                return new Node(op, left, right);
             }
             return left;
         }
@@ -51,75 +149,128 @@ public class LdUpFilter {
         return right;
     }
 
-    protected final String nativeFilter;
+    protected final Node node;
 
-    protected final String entryDN;
+    protected final Set<String> entryDNs;
 
-    protected LdUpFilter(final String nativeFilter, final String entryDN) {
+    protected String nativeFilter;
+
+    protected LdUpFilter(final String nativeFilter, final Set<String> entryDNs) {
+        this(nativeFilter == null ? null : new Node(nativeFilter), entryDNs);
         this.nativeFilter = nativeFilter;
-        this.entryDN = entryDN;
+    }
+
+    protected LdUpFilter(final Node node, final Set<String> entryDNs) {
+        this.node = node;
+        this.entryDNs = entryDNs == null ? null : Collections.unmodifiableSet(entryDNs);
     }
 
     public LdUpFilter withNativeFilter(final String nativeFilter) {
-        return new LdUpFilter(nativeFilter, this.entryDN);
+        return new LdUpFilter(nativeFilter, this.entryDNs);
     }
 
     /**
-     * Logically "ANDs" together this filter with another filter.
+     * Translates this filter into a native filter, by matching the entry DNs (if any) against the {@code entryDN}
+     * operational attribute.
      *
-     * If at most one of the two filters has an entry DN, the result is a filter with that entry DN (if any) and a
-     * native filter whose value is the native filters of the two filters "ANDed" together using the LDAP
-     * {code}&{code} operator.
+     * @return native filter equivalent to this filter
+     */
+    protected Node toNativeFilter() {
+        if (entryDNs == null) {
+            return node;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        if (entryDNs.size() != 1) {
+            builder.append("(|");
+        }
+        entryDNs.forEach(dn -> builder.append("(entryDN=").append(FilterTemplate.encodeValue(dn)).append(')'));
+        if (entryDNs.size() != 1) {
+            builder.append(')');
+        }
+        return combine(new Node(builder.toString()), node, '&');
+    }
+
+    /**
+     * Logically "ANDs" together this filter with another filter.
      *
-     * Otherwise, the method returns null.
+     * The result is a filter whose entry DNs are the ones (if any) of either filter, or the intersection of both if
+     * both have entry DNs, and whose native filter is the native filters of the two filters "ANDed" together using
+     * the LDAP {code}&{code} operator.
      *
      * @param other the other filter.
      *
-     * @return the two filters "ANDed" together or null.
+     * @return the two filters "ANDed" together.
      */
     public LdUpFilter and(final LdUpFilter other) {
-        if (entryDN == null || other.entryDN == null) {
-            return new LdUpFilter(
-                    combine(nativeFilter, other.nativeFilter, '&'),
-                    entryDN == null ? other.entryDN : entryDN);
+        Set<String> dns;
+        if (entryDNs == null || other.entryDNs == null) {
+            dns = entryDNs == null ? other.entryDNs : entryDNs;
+        } else {
+            Set<String> otherDNs = other.entryDNs.stream().map(LdUpUtils::normalizeDn).collect(Collectors.toSet());
+            dns = entryDNs.stream().
+                    filter(dn -> otherDNs.contains(LdUpUtils.normalizeDn(dn))).
+                    collect(Collectors.toCollection(LinkedHashSet::new));
         }
-        return null;
+
+        return new LdUpFilter(combine(node, other.node, '&'), dns);
     }
 
     /**
      * Logically "ORs" together this filter with another filter.
      *
-     * If none of the two filters has an entry DN, the result is a filter with no entry DN and a native filter whose
+     * If none of the two filters has entry DNs, the result is a filter with no entry DNs and a native filter whose
      * value is the native filters of the two filters "ORed" together using the LDAP {code}|{code} filter operator.
      *
-     * Otherwise, the method returns null.
+     * If both filters only have entry DNs, the result is a filter with the union of such entry DNs.
+     *
+     * Otherwise, the result is a filter with no entry DNs and the native filters equivalent to the two filters
+     * "ORed" together, with entry DNs matched against the {@code entryDN} operational attribute.
      *
      * @param other the other filter.
      *
-     * @return the two filters "ORed" together or null.
+     * @return the two filters "ORed" together.
      */
     public LdUpFilter or(final LdUpFilter other) {
-        if (entryDN == null && other.entryDN == null) {
+        if (entryDNs == null && other.entryDNs == null) {
             return new LdUpFilter(
-                    combine(nativeFilter, other.nativeFilter, '|'),
+                    combine(node, other.node, '|'),
                     null);
         }
-        return null;
+
+        if (node == null && other.node == null) {
+            Set<String> dns = new LinkedHashSet<>(entryDNs);
+            Set<String> normalized = entryDNs.stream().map(LdUpUtils::normalizeDn).collect(Collectors.toSet());
+            other.entryDNs.stream().filter(dn -> normalized.add(LdUpUtils.normalizeDn(dn))).forEach(dns::add);
+            return new LdUpFilter((Node) null, dns);
+        }
+
+        return new LdUpFilter(combine(toNativeFilter(), other.toNativeFilter(), '|'), null);
     }
 
     public String getNativeFilter() {
+        if (nativeFilter == null && node != null) {
+            nativeFilter = node.serialize();
+        }
         return nativeFilter;
     }
 
+    /**
+     * @return the only entry DN of this filter, or null if this filter has none or more than one
+     */
     public String getEntryDN() {
-        return entryDN;
+        return entryDNs == null || entryDNs.size() != 1 ? null : entryDNs.iterator().next();
+    }
+
+    public Set<String> getEntryDNs() {
+        return entryDNs;
     }
 
     @Override
     public int hashCode() {
         int hash = 3;
-        hash = 83 * hash + Objects.hashCode(this.nativeFilter);
-        hash = 83 * hash + Objects.hashCode(this.entryDN);
+        hash = 83 * hash + Objects.hashCode(getNativeFilter());
+        hash = 83 * hash + Objects.hashCode(this.entryDNs);
         return hash;
     }
 
@@ -135,17 +286,17 @@ public class LdUpFilter {
             return false;
         }
         final LdUpFilter other = (LdUpFilter) obj;
-        if (!Objects.equals(this.nativeFilter, other.nativeFilter)) {
+        if (!Objects.equals(getNativeFilter(), other.getNativeFilter())) {
             return false;
         }
-        return Objects.equals(this.entryDN, other.entryDN);
+        return Objects.equals(this.entryDNs, other.entryDNs);
     }
 
     @Override
     public String toString() {
         return "LdUpFilter{"
-                + "nativeFilter=" + nativeFilter
-                + ", entryDN=" + entryDN
+                + "nativeFilter=" + getNativeFilter()
+                + ", entryDNs=" + entryDNs
                 + '}';
     }
 }
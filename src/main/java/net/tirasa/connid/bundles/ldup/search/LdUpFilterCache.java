@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2025 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ldup.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import net.tirasa.connid.bundles.ldup.LdUpUtils;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.filter.AndFilter;
+import org.identityconnectors.framework.common.objects.filter.AttributeFilter;
+import org.identityconnectors.framework.common.objects.filter.CompositeFilter;
+import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
+import org.identityconnectors.framework.common.objects.filter.ContainsFilter;
+import org.identityconnectors.framework.common.objects.filter.EndsWithFilter;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.filter.EqualsIgnoreCaseFilter;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.common.objects.filter.GreaterThanFilter;
+import org.identityconnectors.framework.common.objects.filter.GreaterThanOrEqualFilter;
+import org.identityconnectors.framework.common.objects.filter.LessThanFilter;
+import org.identityconnectors.framework.common.objects.filter.LessThanOrEqualFilter;
+import org.identityconnectors.framework.common.objects.filter.NotFilter;
+import org.identityconnectors.framework.common.objects.filter.OrFilter;
+import org.identityconnectors.framework.common.objects.filter.StartsWithFilter;
+
+/**
+ * Caches filter translations by object class and filter structure, i.e. the filter with all values left out.
+ *
+ * On a miss, the filter is translated with a marker in place of each value; the resulting native filters are then
+ * kept as templates, in which the escaped values are substituted on each hit. Filters on DN attributes or with binary
+ * values are not cached, since their values are not escaped as plain attribute values.
+ */
+public class LdUpFilterCache {
+
+    protected static final char MARKER = '\u0001';
+
+    protected final LdUpUtils ldUpUtils;
+
+    protected final Map<String, Optional<List<LdUpFilter>>> templates;
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    public LdUpFilterCache(final LdUpUtils ldUpUtils, final int maxSize) {
+        this.ldUpUtils = ldUpUtils;
+        this.templates = new LinkedHashMap<>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = -3391325591939046585L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Optional<List<LdUpFilter>>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Translates the given filter, from cache if possible.
+     *
+     * @param objectClass object class
+     * @param filter filter to translate
+     * @param translator actual translator, for filters not found in cache
+     * @return translated filters
+     */
+    public List<LdUpFilter> translate(
+            final ObjectClass objectClass,
+            final Filter filter,
+            final Function<Filter, List<LdUpFilter>> translator) {
+
+        StringBuilder key = new StringBuilder(objectClass.getObjectClassValue()).append(MARKER);
+        List<Object> values = new ArrayList<>();
+        Filter parameterized = parameterize(objectClass, filter, key, values);
+        if (parameterized == null) {
+            return translator.apply(filter);
+        }
+
+        Optional<List<LdUpFilter>> cached;
+        synchronized (templates) {
+            cached = templates.get(key.toString());
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+
+            List<LdUpFilter> translated = translator.apply(parameterized);
+            cached = translated.stream().allMatch(translation -> translation.getEntryDNs() == null)
+                    ? Optional.of(translated)
+                    : Optional.empty();
+            synchronized (templates) {
+                templates.put(key.toString(), cached);
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return cached.map(translated -> translated.stream().
+                map(template -> LdUpFilter.forNativeFilter(substitute(template.getNativeFilter(), values))).
+                collect(Collectors.toList())).
+                orElseGet(() -> translator.apply(filter));
+    }
+
+    /**
+     * Builds a copy of the given filter with markers in place of values, while appending its structure to the given
+     * key and its values to the given list.
+     *
+     * @param objectClass object class
+     * @param filter filter
+     * @param key cache key being built
+     * @param values filter values
+     * @return parameterized filter, or null if the given filter cannot be cached
+     */
+    protected Filter parameterize(
+            final ObjectClass objectClass,
+            final Filter filter,
+            final StringBuilder key,
+            final List<Object> values) {
+
+        if (filter instanceof AndFilter || filter instanceof OrFilter) {
+            key.append(filter instanceof AndFilter ? '&' : '|').append('(');
+            List<Filter> filters = new ArrayList<>();
+            for (Filter child : ((CompositeFilter) filter).getFilters()) {
+                Filter parameterized = parameterize(objectClass, child, key, values);
+                if (parameterized == null) {
+                    return null;
+                }
+                filters.add(parameterized);
+            }
+            key.append(')');
+            return filter instanceof AndFilter ? FilterBuilder.and(filters) : FilterBuilder.or(filters);
+        }
+
+        if (filter instanceof NotFilter) {
+            key.append('!');
+            Filter parameterized = parameterize(objectClass, ((NotFilter) filter).getFilter(), key, values);
+            return parameterized == null ? null : FilterBuilder.not(parameterized);
+        }
+
+        if (!(filter instanceof AttributeFilter)) {
+            return null;
+        }
+
+        Attribute attr = ((AttributeFilter) filter).getAttribute();
+        if (ldUpUtils.getLdapAttribute(objectClass, attr.getName()).map(LdUpUtils::isDNAttribute).orElse(false)) {
+            return null;
+        }
+
+        key.append(filter.getClass().getSimpleName()).append('(').append(attr.getName());
+        Attribute parameterized;
+        if (attr.getValue() == null) {
+            parameterized = AttributeBuilder.build(attr.getName());
+        } else {
+            List<Object> markers = new ArrayList<>();
+            for (Object value : attr.getValue()) {
+                if (value instanceof byte[]) {
+                    return null;
+                }
+
+                if (value == null) {
+                    key.append(MARKER).append('n');
+                    markers.add(null);
+                } else if (value.toString().isEmpty()) {
+                    key.append(MARKER).append('e');
+                    markers.add(value);
+                } else {
+                    key.append(MARKER).append('v');
+                    markers.add(MARKER + String.valueOf(values.size()) + MARKER);
+                    values.add(value);
+                }
+            }
+            parameterized = AttributeBuilder.build(attr.getName(), markers);
+        }
+        key.append(')');
+
+        if (filter instanceof EqualsFilter) {
+            return FilterBuilder.equalTo(parameterized);
+        }
+        if (filter instanceof EqualsIgnoreCaseFilter) {
+            return FilterBuilder.equalsIgnoreCase(parameterized);
+        }
+        if (filter instanceof ContainsAllValuesFilter) {
+            return FilterBuilder.containsAllValues(parameterized);
+        }
+        if (filter instanceof ContainsFilter) {
+            return FilterBuilder.contains(parameterized);
+        }
+        if (filter instanceof StartsWithFilter) {
+            return FilterBuilder.startsWith(parameterized);
+        }
+        if (filter instanceof EndsWithFilter) {
+            return FilterBuilder.endsWith(parameterized);
+        }
+        if (filter instanceof GreaterThanFilter) {
+            return FilterBuilder.greaterThan(parameterized);
+        }
+        if (filter instanceof GreaterThanOrEqualFilter) {
+            return FilterBuilder.greaterThanOrEqualTo(parameterized);
+        }
+        if (filter instanceof LessThanFilter) {
+            return FilterBuilder.lessThan(parameterized);
+        }
+        if (filter instanceof LessThanOrEqualFilter) {
+            return FilterBuilder.lessThanOrEqualTo(parameterized);
+        }
+        return null;
+    }
+
+    protected static String substitute(final String template, final List<Object> values) {
+        if (template == null) {
+            return null;
+        }
+
+        StringBuilder builder = new StringBuilder(template.length() + 16 * values.size());
+        int start = 0;
+        for (int marker = template.indexOf(MARKER); marker >= 0; marker = template.indexOf(MARKER, start)) {
+            int end = template.indexOf(MARKER, marker + 1);
+            builder.append(template, start, marker);
+            LdUpFilterTranslator.escapeAttrValue(
+                    values.get(Integer.parseInt(template.substring(marker + 1, end))), builder);
+            start = end + 1;
+        }
+        builder.append(template, start, template.length());
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        int size;
+        synchronized (templates) {
+            size = templates.size();
+        }
+        return "LdUpFilterCache{"
+                + "hits=" + hits
+                + ", misses=" + misses
+                + ", size=" + size
+                + '}';
+    }
+}
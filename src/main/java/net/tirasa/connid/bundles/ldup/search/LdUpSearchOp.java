@@ -15,36 +15,92 @@
  */
 package net.tirasa.connid.bundles.ldup.search;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.tirasa.connid.bundles.ldup.LdUpConstants;
 import net.tirasa.connid.bundles.ldup.LdUpUtils;
+import org.identityconnectors.common.Pair;
+import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.QualifiedUid;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.SearchResult;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.framework.spi.operations.SearchOp;
+import org.ldaptive.Connection;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
+import org.ldaptive.ResultCode;
 import org.ldaptive.ReturnAttributes;
-import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchOperationHandle;
 import org.ldaptive.SearchRequest;
 import org.ldaptive.SearchResponse;
 import org.ldaptive.SearchScope;
 import org.ldaptive.control.PagedResultsControl;
+import org.ldaptive.control.RequestControl;
+import org.ldaptive.control.SortKey;
+import org.ldaptive.control.SortRequestControl;
+import org.ldaptive.control.VirtualListViewRequestControl;
+import org.ldaptive.control.VirtualListViewResponseControl;
+import org.ldaptive.filter.AndFilter;
+import org.ldaptive.filter.FilterParseException;
+import org.ldaptive.filter.FilterParser;
+import org.ldaptive.filter.NotFilter;
+import org.ldaptive.filter.OrFilter;
+import org.ldaptive.filter.SubstringFilter;
+import org.ldaptive.handler.LdapEntryHandler;
 import org.ldaptive.handler.ResultPredicate;
 
 public class LdUpSearchOp implements SearchOp<LdUpFilter> {
 
     protected static final Log LOG = Log.getLog(LdUpSearchOp.class);
 
+    protected static final int MAX_CONCURRENT_LOOKUPS = 10;
+
+    protected static final int MAX_SCAN_PARTITIONS = 1000;
+
     protected final LdUpUtils ldUpUtils;
 
+    protected final LdUpFilterCache filterCache;
+
     public LdUpSearchOp(final LdUpUtils ldUpUtils) {
         this.ldUpUtils = ldUpUtils;
+        this.filterCache = ldUpUtils.getConfiguration().getFilterCacheSize() > 0
+                ? new LdUpFilterCache(ldUpUtils, ldUpUtils.getConfiguration().getFilterCacheSize())
+                : null;
+    }
+
+    public Optional<LdUpFilterCache> getFilterCache() {
+        return Optional.ofNullable(filterCache);
     }
 
     @Override
@@ -52,7 +108,10 @@ public class LdUpSearchOp implements SearchOp<LdUpFilter> {
             final ObjectClass objectClass,
             final OperationOptions options) {
 
-        return new LdUpFilterTranslator(ldUpUtils, objectClass);
+        LdUpFilterTranslator translator = new LdUpFilterTranslator(ldUpUtils, objectClass);
+        return filterCache == null
+                ? translator
+                : filter -> filterCache.translate(objectClass, filter, translator::translate);
     }
 
     @Override
@@ -64,19 +123,21 @@ public class LdUpSearchOp implements SearchOp<LdUpFilter> {
 
         LdUpFilter actualFilter = Optional.ofNullable(filter).
                 orElseGet(() -> LdUpFilter.forNativeFilter("objectClass=" + ldUpUtils.ldapObjectClass(objectClass)));
-        if (actualFilter.getEntryDN() == null && actualFilter.getNativeFilter() == null) {
+
+        Optional<LdUpFilter> nativeOption = nativeFilterOption(options);
+        if (nativeOption.isPresent()) {
+            actualFilter = filter == null ? nativeOption.get() : actualFilter.and(nativeOption.get());
+        }
+        if (actualFilter.getEntryDNs() == null && actualFilter.getNativeFilter() == null) {
             throw new ConnectorException("Invalid search filter");
         }
 
-        SearchRequest request;
-        if (actualFilter.getEntryDN() == null) {
-            String nativeFilter = actualFilter.getNativeFilter();
-            while (nativeFilter.startsWith("(") && nativeFilter.endsWith(")")) {
-                nativeFilter = nativeFilter.substring(1, nativeFilter.length() - 1);
-            }
+        List<String> baseDns = actualFilter.getEntryDNs() == null ? baseDns(options) : List.of();
 
+        SearchRequest request;
+        if (actualFilter.getEntryDNs() == null) {
             request = SearchRequest.builder().
-                    dn(ldUpUtils.getConfiguration().getBaseDn()).
+                    dn(baseDns.get(0)).
                     scope(Optional.ofNullable(options.getScope()).map(scope -> {
                         switch (scope) {
                             case OperationOptions.SCOPE_OBJECT:
@@ -90,57 +151,1151 @@ public class LdUpSearchOp implements SearchOp<LdUpFilter> {
                                 return SearchScope.SUBTREE;
                         }
                     }).orElse(SearchScope.SUBTREE)).
-                    filter("(&(objectClass=" + ldUpUtils.ldapObjectClass(objectClass) + ")(" + nativeFilter + "))").
+                    filter(ldUpUtils.withExclusions(
+                            LdUpFilter.forNativeFilter("objectClass=" + ldUpUtils.ldapObjectClass(objectClass)).
+                                    and(actualFilter).getNativeFilter())).
                     build();
         } else {
+            // with several entry DNs, this is the template for the lookup of each of them
             request = SearchRequest.builder().
-                    dn(actualFilter.getEntryDN()).
+                    dn(Optional.ofNullable(actualFilter.getEntryDN()).orElse("")).
                     scope(SearchScope.OBJECT).
-                    filter("objectClass=" + ldUpUtils.ldapObjectClass(objectClass)).
+                    filter(ldUpUtils.withExclusions(
+                            LdUpFilter.forNativeFilter("objectClass=" + ldUpUtils.ldapObjectClass(objectClass)).
+                                    and(actualFilter).getNativeFilter())).
                     build();
         }
 
-        if (options.getPageSize() != null) {
-            PagedResultsControl prc = new PagedResultsControl(options.getPageSize());
-            Optional.ofNullable(options.getPagedResultsCookie()).
-                    map(cookie -> Base64.getDecoder().decode(cookie)).ifPresent(prc::setCookie);
-            request.setControls(prc);
+        // deadline and size limit, as configured or as overridden via operation options; the deadline is for the
+        // whole search: each request sent, as each page, is given the time left
+        int timeLimit = intOption(
+                options, LdUpConstants.TIME_LIMIT_OPTION, ldUpUtils.getConfiguration().getSearchTimeLimitSeconds());
+        Instant deadline = timeLimit > 0 ? Instant.now().plusSeconds(timeLimit) : null;
+        int sizeLimit = Math.max(0, intOption(
+                options, LdUpConstants.SIZE_LIMIT_OPTION, ldUpUtils.getConfiguration().getSearchSizeLimit()));
+        // one entry more than the size limit is requested, so that reaching the limit is detected here, by the
+        // consumer, rather than failing the search with SIZE_LIMIT_EXCEEDED
+        request.setSizeLimit(sizeLimit > 0 ? sizeLimit + 1 : 0);
+
+        if (isCountOnly(options)) {
+            if (!(handler instanceof SearchResultsHandler)) {
+                throw new ConnectorException(LdUpConstants.COUNT_ONLY_OPTION + " requires a SearchResultsHandler");
+            }
+            count(objectClass, actualFilter, request, baseDns, handler, options, deadline);
+            return;
         }
 
         String idAttr = ldUpUtils.getIdAttribute(objectClass);
-        request.setReturnAttributes(ldUpUtils.returnAttributes(options).
-                map(attrs -> {
-                    attrs.add(idAttr);
-                    return attrs.toArray(String[]::new);
-                }).
-                orElse(ReturnAttributes.ALL.value()));
+
+        List<RequestControl> controls = new ArrayList<>();
+
+        // server-side sorting, only sent when the server advertises support for it
+        boolean sortSupported = ldUpUtils.isControlSupported(SortRequestControl.OID);
+        if (options.getSortKeys() != null && options.getSortKeys().length > 0) {
+            SortKey[] sortKeys = sortKeys(objectClass, options);
+            if (!sortSupported) {
+                LOG.warn("Ignoring sort keys {0}: server-side sorting is not supported",
+                        Arrays.toString(options.getSortKeys()));
+            } else if (sortKeys.length < options.getSortKeys().length) {
+                LOG.warn("Ignoring sort keys {0}: not all of them can be sorted on by the LDAP server",
+                        Arrays.toString(options.getSortKeys()));
+            } else if (baseDns.size() > 1) {
+                // each base DN is searched on its own, so results would only be sorted within each base DN
+                LOG.warn("Ignoring sort keys {0}: results cannot be sorted across base DNs {1}",
+                        Arrays.toString(options.getSortKeys()), baseDns);
+            } else {
+                controls.add(new SortRequestControl(sortKeys, false));
+            }
+        }
+
+        // with several base DNs, the caller pages through one base DN after the other: the cookie is prefixed by the
+        // index of the base DN being paged through
+        int baseIndex = 0;
+        boolean vlv = false;
+        if (options.getPageSize() != null) {
+            String cookie = options.getPagedResultsCookie();
+            if (baseDns.size() > 1 && cookie != null) {
+                int colon = cookie.indexOf(':');
+                try {
+                    baseIndex = Integer.parseInt(cookie.substring(0, colon));
+                } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                    throw new ConnectorException("Invalid paged results cookie " + cookie, e);
+                }
+                if (baseIndex < 0 || baseIndex >= baseDns.size()) {
+                    throw new ConnectorException("Invalid paged results cookie " + cookie);
+                }
+                cookie = colon == cookie.length() - 1 ? null : cookie.substring(colon + 1);
+            }
+
+            if (options.getPagedResultsOffset() != null
+                    && baseDns.size() <= 1
+                    && request.getSearchScope() != SearchScope.OBJECT
+                    && ldUpUtils.isControlSupported(VirtualListViewRequestControl.OID)
+                    && sortSupported) {
+
+                // offset-based paging: the server jumps straight to the requested position of the sorted result
+                VirtualListViewRequestControl vlvrc = new VirtualListViewRequestControl();
+                vlvrc.setTargetOffset(options.getPagedResultsOffset());
+                vlvrc.setBeforeCount(0);
+                vlvrc.setAfterCount(Math.max(0, options.getPageSize() - 1));
+                vlvrc.setContentCount(0);
+                if (controls.isEmpty()) {
+                    controls.add(new SortRequestControl(vlvSortKeys(objectClass, options), true));
+                }
+                controls.add(vlvrc);
+                vlv = true;
+            } else {
+                if (options.getPagedResultsOffset() != null) {
+                    LOG.warn("Ignoring paged results offset {0}: VLV not applicable or not supported",
+                            options.getPagedResultsOffset());
+                }
+
+                PagedResultsControl prc = new PagedResultsControl(options.getPageSize());
+                Optional.ofNullable(cookie).map(Base64.getDecoder()::decode).ifPresent(prc::setCookie);
+                controls.add(prc);
+            }
+        }
+        request.setControls(controls.toArray(RequestControl[]::new));
+
+        request.setReturnAttributes(ldUpUtils.returnAttributes(objectClass, options).toArray(String[]::new));
 
         LOG.ok("Search request is {0}", request);
 
+        // one request for each base DN, all searched at the same time unless results are to be sorted or paged
+        List<SearchRequest> requests = baseDns.stream().map(baseDn -> {
+            SearchRequest baseRequest = SearchRequest.copy(request);
+            baseRequest.setBaseDn(baseDn);
+            return baseRequest;
+        }).collect(Collectors.toList());
+
+        AtomicInteger returned = new AtomicInteger();
+
+        // entries are received, and group memberships are searched for, through the same connection, held for the
+        // whole search: the consumer then needs no other pooled connection, which might not be available
+        Connection conn = ldUpUtils.getConnectionFactory().getConnection();
+
+        // when group memberships are requested, they are resolved for several users at once, then all are handled
+        boolean searchGroups = !ldUpUtils.isMemberOfMode() && ldUpUtils.isGroupsRequested(objectClass, options);
+        boolean batchGroups = searchGroups && ldUpUtils.getConfiguration().getGroupBatchSize() > 1;
+        List<Pair<String, ConnectorObjectBuilder>> batch = new ArrayList<>();
+
+        // once the handler returns false, no other object is passed to it and the search is abandoned
+        AtomicBoolean proceed = new AtomicBoolean(true);
+        Predicate<ConnectorObject> handle = object -> {
+            if (proceed.get() && !handler.handle(object)) {
+                LOG.ok("Handler requested to stop after {0}", object.getUid());
+                proceed.set(false);
+            }
+            return proceed.get();
+        };
+        Runnable flushBatch = () -> {
+            if (proceed.get() && !batch.isEmpty()) {
+                ldUpUtils.addAccountGroups(conn, objectClass, batch, options);
+                for (Pair<String, ConnectorObjectBuilder> user : batch) {
+                    if (!handle.test(user.second.build())) {
+                        break;
+                    }
+                }
+            }
+            batch.clear();
+        };
+
+        // large binary values are replaced by a reference, unless a single entry is read by DN, as by the follow-up get
+        // which reads them in full
+        boolean lazyBinary = ldUpUtils.getConfiguration().getLazyBinaryThreshold() > 0
+                && !(request.getSearchScope() == SearchScope.OBJECT
+                && (actualFilter.getEntryDNs() == null || actualFilter.getEntryDNs().size() == 1));
+
+        Predicate<LdapEntry> convert = entry -> {
+            if (lazyBinary) {
+                ldUpUtils.lazyBinary(entry);
+            }
+
+            Uid uid = Optional.ofNullable(entry.getAttribute(idAttr)).
+                    map(attr -> new Uid(attr.getStringValue())).
+                    orElseThrow(() -> new IllegalArgumentException("Could not fetch " + idAttr + " value"));
+
+            if (batchGroups) {
+                batch.add(Pair.of(
+                        entry.getDn(),
+                        ldUpUtils.connectorObjectBuilder(objectClass, uid, entry, options, false)));
+                if (batch.size() >= ldUpUtils.getConfiguration().getGroupBatchSize()) {
+                    flushBatch.run();
+                }
+                return proceed.get();
+            }
+
+            ConnectorObjectBuilder object = ldUpUtils.connectorObjectBuilder(objectClass, uid, entry, options, false);
+            if (searchGroups) {
+                ldUpUtils.addAccountGroups(conn, objectClass, entry.getDn(), object, options);
+            }
+            return handle.test(object.build());
+        };
+
+        AtomicBoolean truncated = new AtomicBoolean(false);
+        Predicate<LdapEntry> consumer = entry -> {
+            if (ldUpUtils.isExcludedClientSide(entry.getDn())) {
+                LOG.ok("Skipping {0}, inside an excluded DN", entry.getDn());
+                return true;
+            }
+
+            // this also applies the size limit to all requests together, with several base DNs or partitions
+            int count = returned.incrementAndGet();
+            if (sizeLimit > 0 && count > sizeLimit) {
+                LOG.ok("Size limit {0} reached", sizeLimit);
+                truncated.set(true);
+                return false;
+            }
+
+            return convert.test(entry);
+        };
+
+        SearchResult result = null;
         try {
-            SearchResponse response = SearchOperation.builder().
-                    factory(ldUpUtils.getConnectionFactory()).
-                    throwIf(ResultPredicate.NOT_SUCCESS).
-                    build().execute(request);
-
-            response.getEntries().forEach(entry -> {
-                Uid uid = Optional.ofNullable(entry.getAttribute(idAttr)).
-                        map(attr -> new Uid(attr.getStringValue())).
-                        orElseThrow(() -> new IllegalArgumentException("Could not fetch " + idAttr + " value"));
-
-                handler.handle(ldUpUtils.connectorObjectBuilder(objectClass, uid, entry, options).build());
-            });
-
-            if (handler instanceof SearchResultsHandler) {
-                Optional.ofNullable(response.getControl(PagedResultsControl.OID)).
-                        map(PagedResultsControl.class::cast).
-                        filter(control -> control.getCookie() != null).
-                        ifPresent(control -> ((SearchResultsHandler) handler).
-                        handleResult(new SearchResult(
-                                Base64.getEncoder().encodeToString(control.getCookie()), control.getSize())));
+            conn.open();
+
+            if (actualFilter.getEntryDNs() != null && actualFilter.getEntryDNs().size() != 1) {
+                lookup(conn, actualFilter.getEntryDNs(), request, consumer, deadline);
+                flushBatch.run();
+            } else if (options.getPageSize() == null
+                    && controls.isEmpty()
+                    && (requests.size() > 1
+                    || (ldUpUtils.getConfiguration().getScanParallelism() > 1
+                    && request.getSearchScope() == SearchScope.SUBTREE))) {
+
+                // no paging nor sorting requested by the caller: the order of results is free
+                parallelScan(conn, requests, consumer, deadline);
+                flushBatch.run();
+            } else if (options.getPageSize() == null && request.getSearchScope() != SearchScope.OBJECT) {
+
+                // no paging requested by the caller: page through the whole result, one page at a time
+                for (SearchRequest baseRequest : requests) {
+                    boolean completed = ldUpUtils.getConfiguration().getPageLookahead() > 0
+                            ? prefetchingPagedSearch(conn, baseRequest, consumer, deadline)
+                            : pagedSearch(conn, baseRequest, consumer, deadline);
+                    if (!completed) {
+                        break;
+                    }
+                }
+                flushBatch.run();
+            } else if (options.getPageSize() == null && requests.size() > 1) {
+                for (SearchRequest baseRequest : requests) {
+                    if (stream(conn, baseRequest, consumer, deadline) == null) {
+                        break;
+                    }
+                }
+                flushBatch.run();
+            } else {
+                SearchRequest pageRequest = requests.isEmpty() ? request : requests.get(baseIndex);
+                SearchResponse response = stream(conn, pageRequest, consumer, deadline);
+                flushBatch.run();
+
+                if (response == null) {
+                    LOG.ok("Search was abandoned, no paged results cookie available");
+                } else if (vlv) {
+                    result = Optional.ofNullable(response.getControl(VirtualListViewResponseControl.OID)).
+                            map(VirtualListViewResponseControl.class::cast).
+                            map(control -> {
+                                // position of the last entry of the requested window, whatever the entries handled
+                                int windowEnd = control.getTargetPosition() - 1 + options.getPageSize();
+                                return new SearchResult(
+                                        null,
+                                        Math.max(0, control.getContentCount() - windowEnd),
+                                        windowEnd >= control.getContentCount());
+                            }).
+                            orElse(null);
+                } else if (requests.size() > 1) {
+                    int index = baseIndex;
+                    // the size estimate only covers the current base DN: unknown while other base DNs are left
+                    int remaining = index + 1 < requests.size()
+                            ? -1
+                            : pagedResultsControl(response).map(PagedResultsControl::getSize).orElse(-1);
+                    result = Optional.ofNullable(nextCookie(response)).
+                            map(cookie -> index + ":" + Base64.getEncoder().encodeToString(cookie)).
+                            or(() -> index + 1 < requests.size()
+                            ? Optional.of((index + 1) + ":")
+                            : Optional.empty()).
+                            map(cookie -> new SearchResult(cookie, remaining)).
+                            orElse(null);
+                } else {
+                    result = pagedResultsControl(response).
+                            filter(control -> control.getCookie() != null).
+                            map(control -> new SearchResult(
+                                    Base64.getEncoder().encodeToString(control.getCookie()), control.getSize())).
+                            orElse(null);
+                }
             }
         } catch (LdapException e) {
+            if (e.getResultCode() == ResultCode.TIME_LIMIT_EXCEEDED || e.getResultCode() == ResultCode.LDAP_TIMEOUT) {
+                throw new OperationTimeoutException("Deadline expired for search request " + request, e);
+            }
             LOG.warn(e, "Error while executing search request {0}", request);
+        } finally {
+            conn.close();
+        }
+
+        if (handler instanceof SearchResultsHandler) {
+            if (truncated.get()) {
+                // reaching the size limit is reported, rather than silently returning less than requested
+                ((SearchResultsHandler) handler).handleResult(Optional.ofNullable(result).
+                        map(r -> new SearchResult(r.getPagedResultsCookie(), r.getRemainingPagedResults(), false)).
+                        orElseGet(() -> new SearchResult(null, -1, false)));
+            } else if (result != null) {
+                ((SearchResultsHandler) handler).handleResult(result);
+            }
         }
     }
+
+    /**
+     * Returns the DN of the container passed via {@link OperationOptions#getContainer()}, if any, or the configured
+     * base DNs otherwise.
+     *
+     * @param options operation options
+     * @return search base DNs
+     * @throws ConnectorException if the container cannot be found or is not inside any configured base DN
+     */
+    protected List<String> baseDns(final OperationOptions options) {
+        QualifiedUid container = options.getContainer();
+        if (container == null) {
+            return ldUpUtils.getBaseDns();
+        }
+
+        String idAttr = ldUpUtils.getIdAttribute(container.getObjectClass());
+        String containerDn;
+        if (LdUpUtils.isDNAttribute(idAttr)) {
+            containerDn = container.getUid().getUidValue();
+        } else {
+            try {
+                containerDn = ldUpUtils.resolveDn(idAttr, container.getUid().getUidValue());
+            } catch (LdapException e) {
+                throw new ConnectorException("While resolving container " + container, e);
+            }
+            if (containerDn == null) {
+                throw new ConnectorException("No entry found for container " + container);
+            }
+        }
+
+        if (!ldUpUtils.isInsideBaseDns(containerDn)) {
+            throw new ConnectorException("Container " + containerDn + " is not inside any base DN");
+        }
+        return List.of(containerDn);
+    }
+
+    /**
+     * Reads the native LDAP filter passed via {@link LdUpConstants#NATIVE_FILTER_OPTION}, if any.
+     *
+     * @param options operation options
+     * @return native filter, if any
+     * @throws ConnectorException if the native filter is not syntactically valid
+     */
+    protected Optional<LdUpFilter> nativeFilterOption(final OperationOptions options) {
+        return Optional.ofNullable(options.getOptions().get(LdUpConstants.NATIVE_FILTER_OPTION)).
+                map(Object::toString).
+                filter(StringUtil::isNotBlank).
+                map(nativeFilter -> {
+                    try {
+                        FilterParser.parse(nativeFilter);
+                    } catch (FilterParseException e) {
+                        throw new ConnectorException("Invalid native filter " + nativeFilter, e);
+                    }
+                    return LdUpFilter.forNativeFilter(nativeFilter);
+                });
+    }
+
+    protected static int intOption(final OperationOptions options, final String name, final int defaultValue) {
+        return Optional.ofNullable(options.getOptions().get(name)).
+                map(option -> {
+                    try {
+                        return Integer.parseInt(option.toString());
+                    } catch (NumberFormatException e) {
+                        throw new ConnectorException("Invalid " + name + " option " + option, e);
+                    }
+                }).
+                orElse(defaultValue);
+    }
+
+    protected static boolean isCountOnly(final OperationOptions options) {
+        return Optional.ofNullable(options.getOptions().get(LdUpConstants.COUNT_ONLY_OPTION)).
+                map(option -> Boolean.parseBoolean(option.toString())).
+                orElse(false);
+    }
+
+    /**
+     * Counts the entries matching the given request, with no attributes returned: the count is taken from the
+     * VLV content count or the paged results size estimate, when available, or by counting the DNs received otherwise.
+     * The count is reported via {@link SearchResultsHandler#handleResult(SearchResult)}, as described by
+     * {@link LdUpConstants#COUNT_ONLY_OPTION}.
+     *
+     * @param objectClass object class
+     * @param filter search filter
+     * @param request search request
+     * @param baseDns base DNs to count entries under, each in turn, unless looking up entry DNs
+     * @param handler results handler
+     * @param options operation options
+     * @param deadline deadline for the whole count; null for none
+     */
+    protected void count(
+            final ObjectClass objectClass,
+            final LdUpFilter filter,
+            final SearchRequest request,
+            final List<String> baseDns,
+            final ResultsHandler handler,
+            final OperationOptions options,
+            final Instant deadline) {
+
+        SearchRequest countRequest = SearchRequest.copy(request);
+        countRequest.setReturnAttributes(ReturnAttributes.NONE.value());
+        countRequest.setControls();
+        countRequest.setSizeLimit(0);
+
+        AtomicInteger count = new AtomicInteger();
+        Predicate<LdapEntry> counter = entry -> {
+            if (!ldUpUtils.isExcludedClientSide(entry.getDn())) {
+                count.incrementAndGet();
+            }
+            return true;
+        };
+        try (Connection conn = ldUpUtils.getConnectionFactory().getConnection()) {
+            conn.open();
+
+            if (filter.getEntryDNs() != null && filter.getEntryDNs().size() != 1) {
+                lookup(conn, filter.getEntryDNs(), countRequest, counter, deadline);
+            } else if (filter.getEntryDNs() != null) {
+                stream(conn, countRequest, counter, deadline);
+            } else {
+                for (String baseDn : baseDns) {
+                    SearchRequest baseRequest = SearchRequest.copy(countRequest);
+                    baseRequest.setBaseDn(baseDn);
+
+                    // estimates would include the entries inside excluded DNs, if those are left out as received
+                    OptionalInt estimate = baseRequest.getSearchScope() == SearchScope.OBJECT
+                            || ldUpUtils.hasClientSideExclusions()
+                            ? OptionalInt.empty()
+                            : estimate(conn, objectClass, baseRequest, options, deadline);
+                    if (estimate.isPresent()) {
+                        count.addAndGet(estimate.getAsInt());
+                    } else if (baseRequest.getSearchScope() != SearchScope.OBJECT) {
+                        pagedSearch(conn, baseRequest, counter, deadline);
+                    } else {
+                        stream(conn, baseRequest, counter, deadline);
+                    }
+                }
+            }
+        } catch (LdapException e) {
+            throw new ConnectorException("While counting entries for " + countRequest, e);
+        }
+
+        LOG.ok("Counted {0} entries for {1}", count.get(), countRequest);
+        ((SearchResultsHandler) handler).handleResult(new SearchResult(null, count.get(), true));
+    }
+
+    /**
+     * Asks the LDAP server for the number of entries matching the given request, via VLV if supported, or via the
+     * size estimate of a paged search with minimal page size otherwise.
+     *
+     * @param conn connection to send the searches through
+     * @param objectClass object class
+     * @param request search request, with no attributes returned
+     * @param options operation options
+     * @param deadline deadline for the whole count; null for none
+     * @return number of matching entries, or empty if not available from the LDAP server
+     * @throws LdapException if the search could not be performed
+     */
+    protected OptionalInt estimate(
+            final Connection conn,
+            final ObjectClass objectClass,
+            final SearchRequest request,
+            final OperationOptions options,
+            final Instant deadline) throws LdapException {
+
+        if (ldUpUtils.isControlSupported(VirtualListViewRequestControl.OID)
+                && ldUpUtils.isControlSupported(SortRequestControl.OID)) {
+
+            VirtualListViewRequestControl vlvrc = new VirtualListViewRequestControl();
+            vlvrc.setTargetOffset(1);
+            vlvrc.setBeforeCount(0);
+            vlvrc.setAfterCount(0);
+            vlvrc.setContentCount(0);
+
+            SearchRequest vlvRequest = SearchRequest.copy(request);
+            vlvRequest.setControls(new SortRequestControl(vlvSortKeys(objectClass, options), true), vlvrc);
+
+            SearchResponse response = conn.operation(LdUpUtils.deadline(vlvRequest, deadline)).execute();
+            Optional<VirtualListViewResponseControl> control = Optional.ofNullable(
+                    response.getControl(VirtualListViewResponseControl.OID)).
+                    map(VirtualListViewResponseControl.class::cast).
+                    filter(vlvresc -> vlvresc.getViewResult() == ResultCode.SUCCESS);
+            if (response.isSuccess() && control.isPresent()) {
+                return OptionalInt.of(control.get().getContentCount());
+            }
+            LOG.ok("No VLV content count available for {0}", request);
+        }
+
+        SearchRequest pageRequest = SearchRequest.copy(request);
+        pageRequest.setControls(new PagedResultsControl(1));
+        SearchResponse response = conn.operation(LdUpUtils.deadline(pageRequest, deadline)).
+                throwIf(ResultPredicate.NOT_SUCCESS).
+                execute();
+
+        // no cookie means that the single page contained all entries
+        byte[] cookie = nextCookie(response);
+        if (cookie == null) {
+            return OptionalInt.of(response.entrySize());
+        }
+
+        // release the server-side paging state, as no other page is going to be requested
+        PagedResultsControl abandon = new PagedResultsControl(0);
+        abandon.setCookie(cookie);
+        SearchRequest abandonRequest = SearchRequest.copy(request);
+        abandonRequest.setControls(abandon);
+        conn.operation(LdUpUtils.deadline(abandonRequest, deadline)).execute();
+
+        return pagedResultsControl(response).
+                map(PagedResultsControl::getSize).
+                filter(size -> size > 0).
+                map(OptionalInt::of).
+                orElseGet(OptionalInt::empty);
+    }
+
+    /**
+     * Translates the sort keys found in the given options into LDAP sort keys; those which cannot be sorted on by the
+     * LDAP server, as {@link org.identityconnectors.framework.common.objects.Name}, which is mapped to the entry DN,
+     * are left out.
+     *
+     * @param objectClass object class
+     * @param options operation options
+     * @return LDAP sort keys
+     */
+    protected SortKey[] sortKeys(final ObjectClass objectClass, final OperationOptions options) {
+        return Optional.ofNullable(options.getSortKeys()).stream().
+                flatMap(Stream::of).
+                map(sortKey -> ldUpUtils.getLdapAttribute(objectClass, sortKey.getField()).
+                filter(attr -> !LdUpUtils.isDNAttribute(attr)).
+                map(attr -> new SortKey(attr, null, !sortKey.isAscendingOrder())).
+                orElse(null)).
+                filter(Objects::nonNull).
+                toArray(SortKey[]::new);
+    }
+
+    /**
+     * Same as {@link #sortKeys(ObjectClass, OperationOptions)}, but falling back to the id attribute of the given
+     * object class if not all sort keys can be sorted on, since VLV requires results to be sorted anyway.
+     *
+     * @param objectClass object class
+     * @param options operation options
+     * @return LDAP sort keys
+     */
+    protected SortKey[] vlvSortKeys(final ObjectClass objectClass, final OperationOptions options) {
+        SortKey[] sortKeys = sortKeys(objectClass, options);
+        if (sortKeys.length > 0
+                && sortKeys.length == Optional.ofNullable(options.getSortKeys()).map(keys -> keys.length).orElse(0)) {
+
+            return sortKeys;
+        }
+
+        String idAttr = ldUpUtils.getIdAttribute(objectClass);
+        return new SortKey[] { new SortKey(LdUpUtils.isDNAttribute(idAttr) ? "cn" : idAttr) };
+    }
+
+    protected static Optional<PagedResultsControl> pagedResultsControl(final SearchResponse response) {
+        return Optional.ofNullable(response.getControl(PagedResultsControl.OID)).map(PagedResultsControl.class::cast);
+    }
+
+    protected static byte[] nextCookie(final SearchResponse response) {
+        return pagedResultsControl(response).
+                map(PagedResultsControl::getCookie).
+                filter(cookie -> cookie.length > 0).
+                orElse(null);
+    }
+
+    protected SearchRequest page(final SearchRequest request, final byte[] cookie) {
+        SearchRequest pageRequest = SearchRequest.copy(request);
+        PagedResultsControl prc = new PagedResultsControl(ldUpUtils.getConfiguration().getPageSize());
+        Optional.ofNullable(cookie).ifPresent(prc::setCookie);
+
+        List<RequestControl> controls = new ArrayList<>();
+        Optional.ofNullable(request.getControls()).ifPresent(ctls -> controls.addAll(Arrays.asList(ctls)));
+        controls.add(prc);
+        pageRequest.setControls(controls.toArray(RequestControl[]::new));
+        return pageRequest;
+    }
+
+    protected Duration responseTimeout() {
+        return Duration.ofSeconds(ldUpUtils.getConfiguration().getResponseTimeoutSeconds());
+    }
+
+    /**
+     * Creates a queue for the entries of a search, to be received by the given deadline.
+     *
+     * @param lookahead how many pages can be received while the current one is being consumed
+     * @param pageSize maximum number of entries of each page
+     * @param deadline deadline for the whole search; null for none
+     * @return entry queue
+     */
+    protected LdUpEntryQueue entryQueue(final int lookahead, final int pageSize, final Instant deadline) {
+        return new LdUpEntryQueue(responseTimeout(), lookahead, pageSize, deadline);
+    }
+
+    /**
+     * Tells how many entries the given request can return at most, according to its scope and controls; searches not
+     * limited otherwise are expected to be paged with the configured page size.
+     *
+     * @param request search request
+     * @return maximum number of entries expected
+     */
+    protected int pageSize(final SearchRequest request) {
+        if (request.getSearchScope() == SearchScope.OBJECT) {
+            return 1;
+        }
+        for (RequestControl control : Optional.ofNullable(request.getControls()).orElse(new RequestControl[0])) {
+            if (control instanceof PagedResultsControl) {
+                return ((PagedResultsControl) control).getSize();
+            }
+            if (control instanceof VirtualListViewRequestControl) {
+                VirtualListViewRequestControl vlvrc = (VirtualListViewRequestControl) control;
+                return vlvrc.getBeforeCount() + vlvrc.getAfterCount() + 1;
+            }
+        }
+        return ldUpUtils.getConfiguration().getPageSize();
+    }
+
+    /**
+     * Passes the entries received by the given queue to the given consumer; should the consumer request to stop, or
+     * the entries not be received in time, the given searches still in flight are abandoned and the queue is closed.
+     *
+     * @param queue entry queue
+     * @param consumer entry consumer
+     * @param stopped set when the consumer requested to stop or the entries were not received in time
+     * @param inFlight searches in flight, each removed once completed
+     * @return {@code false} if the consumer requested to stop, {@code true} otherwise
+     */
+    protected boolean drain(
+            final LdUpEntryQueue queue,
+            final Predicate<LdapEntry> consumer,
+            final AtomicBoolean stopped,
+            final Collection<SearchOperationHandle> inFlight) {
+
+        boolean completed = false;
+        try {
+            completed = queue.drain(consumer);
+        } finally {
+            if (!completed) {
+                stopped.set(true);
+                abandon(inFlight);
+                queue.close();
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Requests one page after the other, each only once the previous one was fully consumed.
+     *
+     * @param conn connection to request all pages through, as paged results cookies are bound to the connection
+     * @param request search request
+     * @param consumer entry consumer
+     * @param deadline deadline for the whole search; null for none
+     * @return {@code false} if the consumer requested to stop, {@code true} otherwise
+     * @throws LdapException if the search could not be performed
+     */
+    protected boolean pagedSearch(
+            final Connection conn,
+            final SearchRequest request,
+            final Predicate<LdapEntry> consumer,
+            final Instant deadline) throws LdapException {
+
+        byte[] cookie = null;
+        do {
+            SearchResponse response = stream(conn, page(request, cookie), consumer, deadline);
+            if (response == null) {
+                return false;
+            }
+            cookie = nextCookie(response);
+        } while (cookie != null);
+        return true;
+    }
+
+    /**
+     * Requests pages in background, up to the configured lookahead, while the consumer is processing the entries
+     * of the current page.
+     *
+     * @param conn connection to request all pages through, as paged results cookies are bound to the connection; the
+     * consumer can send its own searches through the same one, so that no further pooled connection is needed
+     * @param request search request
+     * @param consumer entry consumer
+     * @param deadline deadline for the whole search; null for none
+     * @return {@code false} if the consumer requested to stop, {@code true} otherwise
+     * @throws LdapException if the search could not be performed
+     */
+    protected boolean prefetchingPagedSearch(
+            final Connection conn,
+            final SearchRequest request,
+            final Predicate<LdapEntry> consumer,
+            final Instant deadline) throws LdapException {
+
+        LdUpEntryQueue queue = entryQueue(
+                ldUpUtils.getConfiguration().getPageLookahead(), ldUpUtils.getConfiguration().getPageSize(), deadline);
+        Set<SearchOperationHandle> inFlight = ConcurrentHashMap.newKeySet();
+        AtomicBoolean stopped = new AtomicBoolean(false);
+
+        Future<Void> producer = ldUpUtils.getExecutorService().submit(() -> {
+            try {
+                byte[] cookie = null;
+                do {
+                    queue.awaitPage();
+
+                    SearchOperationHandle handle = conn.operation(LdUpUtils.deadline(page(request, cookie), deadline));
+                    inFlight.add(handle);
+                    cookie = nextCookie(handle.
+                            onEntry(queue).
+                            onComplete(() -> inFlight.remove(handle)).
+                            throwIf(ResultPredicate.NOT_SUCCESS).
+                            send().
+                            await());
+
+                    queue.endPage();
+                } while (cookie != null && !stopped.get());
+            } finally {
+                queue.end();
+            }
+            return null;
+        });
+
+        try {
+            if (!drain(queue, consumer, stopped, inFlight)) {
+                return false;
+            }
+            producer.get();
+            return true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LdapException) {
+                throw (LdapException) e.getCause();
+            }
+            if (e.getCause() instanceof ConnectorException) {
+                throw (ConnectorException) e.getCause();
+            }
+            throw new ConnectorException("While prefetching pages for " + request, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while prefetching pages for " + request, e);
+        } finally {
+            producer.cancel(true);
+        }
+    }
+
+    /**
+     * Splits the given SUBTREE search into disjoint partitions: if a scan partition attribute is configured, one search
+     * for each of the configured scan partition prefixes, in order, as initial substring of such attribute, plus one
+     * last for all other entries; otherwise, an OBJECT-scope search of the base DN, plus one SUBTREE search for each
+     * immediate child of the base DN.
+     *
+     * @param conn connection to read the children of the base DN through
+     * @param request search request
+     * @param deadline deadline for the whole search; null for none
+     * @return partitions, or empty list if the base DN has too many children to be worth partitioning
+     * @throws LdapException if the children of the base DN could not be read
+     */
+    protected List<SearchRequest> partitions(
+            final Connection conn,
+            final SearchRequest request,
+            final Instant deadline) throws LdapException {
+
+        String partitionAttr = ldUpUtils.getConfiguration().getScanPartitionAttribute();
+        if (StringUtil.isNotBlank(partitionAttr)) {
+            List<SearchRequest> partitions = new ArrayList<>();
+            List<org.ldaptive.filter.Filter> prefixes = new ArrayList<>();
+            for (String prefix : ldUpUtils.getConfiguration().getScanPartitionPrefixes()) {
+                SubstringFilter prefixFilter = new SubstringFilter(partitionAttr, prefix, null);
+                prefixes.add(prefixFilter);
+
+                SearchRequest partition = SearchRequest.copy(request);
+                partition.setFilter(new AndFilter(request.getFilter(), prefixFilter));
+                partitions.add(partition);
+            }
+
+            // entries without the attribute, or with values starting otherwise
+            SearchRequest others = SearchRequest.copy(request);
+            others.setFilter(new AndFilter(request.getFilter(),
+                    new NotFilter(new OrFilter(prefixes.toArray(org.ldaptive.filter.Filter[]::new)))));
+            partitions.add(others);
+
+            return partitions;
+        }
+
+        SearchResponse children = conn.operation(LdUpUtils.deadline(SearchRequest.builder().
+                dn(request.getBaseDn()).
+                scope(SearchScope.ONELEVEL).
+                filter("(objectClass=*)").
+                returnAttributes(ReturnAttributes.NONE.value()).
+                sizeLimit(MAX_SCAN_PARTITIONS).
+                build(), deadline)).
+                throwIf(result -> result.getResultCode() != ResultCode.SUCCESS
+                && result.getResultCode() != ResultCode.SIZE_LIMIT_EXCEEDED).
+                execute();
+        if (children.getResultCode() == ResultCode.SIZE_LIMIT_EXCEEDED) {
+            LOG.ok("More than {0} entries under {1}, not partitioning", MAX_SCAN_PARTITIONS, request.getBaseDn());
+            return List.of();
+        }
+
+        List<SearchRequest> partitions = new ArrayList<>();
+
+        SearchRequest base = SearchRequest.copy(request);
+        base.setSearchScope(SearchScope.OBJECT);
+        partitions.add(base);
+
+        children.getEntries().forEach(child -> {
+            SearchRequest partition = SearchRequest.copy(request);
+            partition.setBaseDn(child.getDn());
+            partitions.add(partition);
+        });
+
+        return partitions;
+    }
+
+    /**
+     * Runs the given searches, one for each base DN, concurrently; with scan parallelism configured, each subtree
+     * search is also split into the partitions returned by {@link #partitions(Connection, SearchRequest, Instant)}.
+     * Up to the configured scan parallelism, or the number of base DNs if greater, but no more than the pool maximum
+     * size minus one, left to the consumer, searches run at the same time, each on its own connection; entries are
+     * passed to the consumer on the calling thread. Each search requests its next page only when there is room for
+     * it, as with {@link #prefetchingPagedSearch}, so that a slow consumer holds the searches back.
+     *
+     * @param conn connection held by the consumer, through which requests are sent if not run in parallel
+     * @param requests search requests, one for each base DN
+     * @param consumer entry consumer
+     * @param deadline deadline for the whole scan; null for none
+     * @return {@code false} if the consumer requested to stop, {@code true} otherwise
+     * @throws LdapException if any search could not be performed
+     */
+    protected boolean parallelScan(
+            final Connection conn,
+            final List<SearchRequest> requests,
+            final Predicate<LdapEntry> consumer,
+            final Instant deadline) throws LdapException {
+
+        // each worker holds a pooled connection for the whole scan, besides the one held by the consumer, as to
+        // resolve group memberships: with less than two connections left for the workers, requests run in turn
+        int maxWorkers = ldUpUtils.getConfiguration().getPoolMaxSize() - 1;
+        if (maxWorkers < 2) {
+            LOG.ok("Pool too small to scan in parallel, searching {0} in turn", requests);
+            for (SearchRequest request : requests) {
+                if (!scan(conn, request, consumer, deadline)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // values of a multi-valued partition attribute can start differently, making an entry found in more than one
+        // partition: each partition is then paired with the index of its prefix, to only keep the entries it owns
+        String partitionAttr = ldUpUtils.getConfiguration().getScanPartitionAttribute();
+        boolean multiValued = StringUtil.isNotBlank(partitionAttr)
+                && !ldUpUtils.getSchemaOp().isSingleValued(partitionAttr);
+
+        int parallelism = ldUpUtils.getConfiguration().getScanParallelism();
+        Queue<Pair<SearchRequest, Integer>> partitions = new ConcurrentLinkedQueue<>();
+        for (SearchRequest request : requests) {
+            List<SearchRequest> requestPartitions = parallelism > 1 && request.getSearchScope() == SearchScope.SUBTREE
+                    ? partitions(conn, request, deadline)
+                    : List.of();
+            if (requestPartitions.size() > 1) {
+                for (int i = 0; i < requestPartitions.size(); i++) {
+                    partitions.add(Pair.of(requestPartitions.get(i), multiValued ? i : null));
+                }
+            } else {
+                partitions.add(Pair.of(request, null));
+            }
+        }
+        if (partitions.size() <= 1) {
+            return scan(conn, partitions.remove().first, consumer, deadline);
+        }
+
+        int workers = Math.min(partitions.size(), Math.min(Math.max(parallelism, requests.size()), maxWorkers));
+        LOG.ok("Scanning {0} partitions of {1} with {2} connections", partitions.size(), requests, workers);
+
+        // as with prefetching, each worker waits for room before requesting a page (or a partition, if not paged):
+        // no more than one page per worker, plus the configured lookahead, are received ahead of the consumer
+        LdUpEntryQueue queue = entryQueue(
+                workers - 1 + ldUpUtils.getConfiguration().getPageLookahead(),
+                ldUpUtils.getConfiguration().getPageSize(),
+                deadline);
+        Set<SearchOperationHandle> inFlight = ConcurrentHashMap.newKeySet();
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        AtomicInteger running = new AtomicInteger(workers);
+        List<Future<Void>> producers = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            producers.add(ldUpUtils.getExecutorService().submit(() -> {
+                try (Connection workerConn = ldUpUtils.getConnectionFactory().getConnection()) {
+                    workerConn.open();
+
+                    for (Pair<SearchRequest, Integer> next = partitions.poll();
+                            next != null && !stopped.get();
+                            next = partitions.poll()) {
+
+                        SearchRequest partition = next.first;
+                        LdapEntryHandler handler = next.second == null
+                                ? queue
+                                : owned(queue, partitionAttr, next.second, partition);
+                        boolean paged = partition.getSearchScope() != SearchScope.OBJECT;
+                        byte[] cookie = null;
+                        do {
+                            queue.awaitPage();
+
+                            SearchOperationHandle handle = workerConn.operation(LdUpUtils.deadline(
+                                    paged ? page(partition, cookie) : partition, deadline));
+                            inFlight.add(handle);
+                            SearchResponse response = handle.
+                                    onEntry(handler).
+                                    onComplete(() -> inFlight.remove(handle)).
+                                    throwIf(result -> result.getResultCode() != ResultCode.SUCCESS
+                                    && result.getResultCode() != ResultCode.NO_SUCH_OBJECT).
+                                    send().
+                                    await();
+                            cookie = paged ? nextCookie(response) : null;
+
+                            queue.endPage();
+                        } while (cookie != null && !stopped.get());
+                    }
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        queue.end();
+                    }
+                }
+                return null;
+            }));
+        }
+
+        try {
+            if (!drain(queue, consumer, stopped, inFlight)) {
+                return false;
+            }
+            for (Future<Void> producer : producers) {
+                producer.get();
+            }
+            return true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LdapException) {
+                throw (LdapException) e.getCause();
+            }
+            if (e.getCause() instanceof ConnectorException) {
+                throw (ConnectorException) e.getCause();
+            }
+            throw new ConnectorException("While scanning " + requests, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while scanning " + requests, e);
+        } finally {
+            producers.forEach(producer -> producer.cancel(true));
+        }
+    }
+
+    /**
+     * Tells the partition among those by attribute, as returned by
+     * {@link #partitions(Connection, SearchRequest, Instant)}, the given entry belongs to: the first one whose scan
+     * partition prefix starts any of its values, otherwise the one of all other entries.
+     *
+     * @param entry LDAP entry
+     * @param partitionAttr scan partition attribute
+     * @return index of the owning partition
+     */
+    protected int owningPartition(final LdapEntry entry, final String partitionAttr) {
+        String[] prefixes = ldUpUtils.getConfiguration().getScanPartitionPrefixes();
+        LdapAttribute attr = entry.getAttribute(partitionAttr);
+        if (attr != null) {
+            boolean ignoreCase = ldUpUtils.getSchemaOp().ignoresCase(partitionAttr);
+            List<String> values = attr.getStringValues().stream().map(String::trim).collect(Collectors.toList());
+            for (int i = 0; i < prefixes.length; i++) {
+                String prefix = prefixes[i];
+                if (values.stream().anyMatch(value -> value.regionMatches(ignoreCase, 0, prefix, 0, prefix.length()))) {
+                    return i;
+                }
+            }
+        }
+        return prefixes.length;
+    }
+
+    /**
+     * Wraps the given handler so that only the entries belonging to the given partition are passed on, so that each
+     * entry is found once even if its values of the multi-valued partition attribute start differently.
+     *
+     * @param handler entry handler
+     * @param partitionAttr scan partition attribute
+     * @param partition index of the partition, as returned by {@link #partitions(Connection, SearchRequest, Instant)}
+     * @param request search of the partition, whose return attributes are extended with the partition attribute if
+     * not among them
+     * @return entry handler
+     */
+    protected LdapEntryHandler owned(
+            final LdapEntryHandler handler,
+            final String partitionAttr,
+            final int partition,
+            final SearchRequest request) {
+
+        // the partition attribute is needed to tell the owning partition, but only reported if requested
+        List<String> returnAttributes = request.getReturnAttributes() == null
+                || request.getReturnAttributes().length == 0
+                ? List.of(ReturnAttributes.ALL_USER.value())
+                : List.of(request.getReturnAttributes());
+        boolean requested = returnAttributes.contains(ReturnAttributes.ALL_USER.value()[0])
+                || returnAttributes.stream().anyMatch(partitionAttr::equalsIgnoreCase);
+        if (returnAttributes.stream().noneMatch(partitionAttr::equalsIgnoreCase)) {
+            request.setReturnAttributes(Stream.concat(returnAttributes.stream(), Stream.of(partitionAttr)).
+                    toArray(String[]::new));
+        }
+        return entry -> {
+            if (owningPartition(entry, partitionAttr) != partition) {
+                return null;
+            }
+            if (!requested && entry.getAttribute(partitionAttr) != null) {
+                entry.removeAttributes(List.of(entry.getAttribute(partitionAttr)));
+            }
+            return handler.apply(entry);
+        };
+    }
+
+    /**
+     * Runs the given search on its own, paged unless OBJECT-scope.
+     *
+     * @param conn connection to send the search through
+     * @param request search request
+     * @param consumer entry consumer
+     * @param deadline deadline for the whole search; null for none
+     * @return {@code false} if the consumer requested to stop, {@code true} otherwise
+     * @throws LdapException if the search could not be performed
+     */
+    protected boolean scan(
+            final Connection conn,
+            final SearchRequest request,
+            final Predicate<LdapEntry> consumer,
+            final Instant deadline) throws LdapException {
+
+        return request.getSearchScope() == SearchScope.OBJECT
+                ? stream(conn, request, consumer, deadline) != null
+                : pagedSearch(conn, request, consumer, deadline);
+    }
+
+    /**
+     * Reads the entries with the given DNs, each with an OBJECT-scope search; up to
+     * {@link #MAX_CONCURRENT_LOOKUPS} searches are outstanding at any time on the given connection.
+     *
+     * @param conn connection to send the searches through
+     * @param dns entry DNs
+     * @param request search request to read each entry with
+     * @param consumer entry consumer
+     * @param deadline deadline for all lookups; null for none
+     * @return {@code false} if the consumer requested to stop, {@code true} otherwise
+     * @throws LdapException if any search could not be performed
+     */
+    protected boolean lookup(
+            final Connection conn,
+            final Set<String> dns,
+            final SearchRequest request,
+            final Predicate<LdapEntry> consumer,
+            final Instant deadline) throws LdapException {
+
+        LdUpEntryQueue queue = entryQueue(0, dns.size(), deadline);
+        Set<SearchOperationHandle> inFlight = ConcurrentHashMap.newKeySet();
+        AtomicBoolean stopped = new AtomicBoolean(false);
+
+        Future<Void> producer = ldUpUtils.getExecutorService().submit(() -> {
+            try {
+                List<SearchOperationHandle> handles = new ArrayList<>();
+                Semaphore outstanding = new Semaphore(MAX_CONCURRENT_LOOKUPS);
+                for (String dn : dns) {
+                    outstanding.acquire();
+                    if (stopped.get()) {
+                        break;
+                    }
+
+                    SearchRequest lookupRequest = SearchRequest.copy(request);
+                    lookupRequest.setBaseDn(dn);
+                    SearchOperationHandle handle = conn.operation(LdUpUtils.deadline(lookupRequest, deadline));
+                    inFlight.add(handle);
+                    handles.add(handle.
+                            onEntry(queue).
+                            onComplete(() -> {
+                                inFlight.remove(handle);
+                                outstanding.release();
+                            }).
+                            throwIf(result -> result.getResultCode() != ResultCode.SUCCESS
+                            && result.getResultCode() != ResultCode.NO_SUCH_OBJECT).
+                            send());
+                }
+                for (SearchOperationHandle handle : handles) {
+                    handle.await();
+                }
+            } finally {
+                queue.end();
+            }
+            return null;
+        });
+
+        try {
+            if (!drain(queue, consumer, stopped, inFlight)) {
+                return false;
+            }
+            producer.get();
+            return true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LdapException) {
+                throw (LdapException) e.getCause();
+            }
+            if (e.getCause() instanceof ConnectorException) {
+                throw (ConnectorException) e.getCause();
+            }
+            throw new ConnectorException("While looking up " + dns, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while looking up " + dns, e);
+        } finally {
+            producer.cancel(true);
+        }
+    }
+
+    /**
+     * Sends the given request and passes each entry to the consumer as soon as it is received, rather than collecting
+     * all of them in the response.
+     *
+     * @param conn connection to send the request through
+     * @param request search request
+     * @param consumer entry consumer
+     * @param deadline deadline for the whole search, of which the given request can be a part; null for none
+     * @return search response, with no entries, or null if the consumer requested to stop and the search was abandoned
+     * @throws LdapException if the search could not be performed
+     */
+    protected SearchResponse stream(
+            final Connection conn,
+            final SearchRequest request,
+            final Predicate<LdapEntry> consumer,
+            final Instant deadline) throws LdapException {
+
+        LdUpEntryQueue queue = entryQueue(0, pageSize(request), deadline);
+        Set<SearchOperationHandle> inFlight = ConcurrentHashMap.newKeySet();
+        SearchOperationHandle handle = conn.operation(LdUpUtils.deadline(request, deadline));
+        inFlight.add(handle);
+        handle.onEntry(queue).
+                onResult(result -> queue.end()).
+                onException(e -> queue.end()).
+                onComplete(() -> inFlight.remove(handle)).
+                throwIf(ResultPredicate.NOT_SUCCESS).
+                send();
+
+        if (!drain(queue, consumer, new AtomicBoolean(false), inFlight)) {
+            return null;
+        }
+
+        return handle.await();
+    }
+
+    /**
+     * Abandons the given searches, i.e. those not completed yet.
+     *
+     * @param handles search handles
+     */
+    protected void abandon(final Collection<SearchOperationHandle> handles) {
+        handles.forEach(handle -> {
+            LOG.ok("Abandoning {0}", handle);
+            handle.abandon();
+        });
+    }
 }
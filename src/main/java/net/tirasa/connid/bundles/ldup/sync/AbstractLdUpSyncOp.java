@@ -17,22 +17,30 @@ package net.tirasa.connid.bundles.ldup.sync;
 
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import net.tirasa.connid.bundles.ldup.LdUpUtils;
+import org.identityconnectors.common.Pair;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.Uid;
+import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
 import org.ldaptive.ReturnAttributes;
-import org.ldaptive.SearchOperation;
 import org.ldaptive.SearchRequest;
-import org.ldaptive.SearchResponse;
 import org.ldaptive.SearchScope;
 import org.ldaptive.SingleConnectionFactory;
 import org.ldaptive.control.SyncDoneControl;
@@ -40,27 +48,140 @@ import org.ldaptive.control.SyncStateControl;
 import org.ldaptive.control.util.DefaultCookieManager;
 import org.ldaptive.control.util.SyncReplClient;
 import org.ldaptive.extended.SyncInfoMessage;
-import org.ldaptive.handler.ResultPredicate;
 
 abstract class AbstractLdUpSyncOp {
 
     protected static final Log LOG = Log.getLog(AbstractLdUpSyncOp.class);
 
+    protected static final String NO_COOKIE = "-";
+
     protected final LdUpUtils ldUpUtils;
 
     protected AbstractLdUpSyncOp(final LdUpUtils ldUpUtils) {
         this.ldUpUtils = ldUpUtils;
     }
 
+    /**
+     * Decodes the given cookie into one cookie for each base DN: the cookies of the base DNs are encoded as Base64,
+     * space-separated, with {@link #NO_COOKIE} standing for a base DN without cookie; with a single base DN, this is
+     * just the Base64 encoding of its cookie.
+     *
+     * @param cookie cookie to decode, possibly null
+     * @param baseDns number of base DNs
+     * @return one cookie for each base DN, possibly null
+     */
+    protected static List<byte[]> decodeCookies(final String cookie, final int baseDns) {
+        List<byte[]> cookies = new ArrayList<>(Collections.nCopies(baseDns, null));
+        if (cookie == null) {
+            return cookies;
+        }
+
+        String[] values = cookie.split(" ");
+        if (values.length != baseDns) {
+            LOG.warn("Cookie has {0} values for {1} base DNs, starting over", values.length, baseDns);
+            return cookies;
+        }
+        for (int i = 0; i < baseDns; i++) {
+            if (!NO_COOKIE.equals(values[i])) {
+                cookies.set(i, Base64.getDecoder().decode(values[i]));
+            }
+        }
+        return cookies;
+    }
+
+    /**
+     * Encodes the given cookies, one for each base DN, as expected by {@link #decodeCookies(String, int)}.
+     *
+     * @param cookies one cookie for each base DN, possibly null
+     * @return encoded cookie, or null if no cookie was given
+     */
+    protected static String encodeCookies(final List<byte[]> cookies) {
+        if (cookies.stream().allMatch(Objects::isNull)) {
+            return null;
+        }
+        return cookies.stream().
+                map(cookie -> cookie == null ? NO_COOKIE : Base64.getEncoder().encodeToString(cookie)).
+                collect(Collectors.joining(" "));
+    }
+
+    /**
+     * Runs the given action on each base DN, all at the same time when more than one.
+     *
+     * @param <R> action result type
+     * @param action action taking the index of the base DN and the base DN itself
+     * @return action results, in the same order as base DNs
+     */
+    protected <R> List<R> onEachBaseDn(final BiFunction<Integer, String, R> action) {
+        List<String> baseDns = ldUpUtils.getBaseDns();
+        if (baseDns.size() == 1) {
+            return Collections.singletonList(action.apply(0, baseDns.get(0)));
+        }
+
+        List<Future<R>> futures = new ArrayList<>();
+        for (int i = 0; i < baseDns.size(); i++) {
+            int index = i;
+            futures.add(ldUpUtils.getExecutorService().submit(() -> action.apply(index, baseDns.get(index))));
+        }
+
+        List<R> results = new ArrayList<>();
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ConnectorException("While managing SyncRepl events", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while managing SyncRepl events", e);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return results;
+    }
+
     protected <T> List<T> dosync(
             final ObjectClass objectClass,
             final Function<ConnectorObjectBuilder, T> createOrUpdate,
             final Function<ConnectorObjectBuilder, T> delete,
             final BiConsumer<T, String> outCookieReporter,
-            final byte[] cookie,
+            final String cookie,
             final OperationOptions options) {
 
+        List<byte[]> cookies = decodeCookies(cookie, ldUpUtils.getBaseDns().size());
+
+        // conversions are deferred until the group memberships of all received users were resolved in batches
+        List<Pair<String, ConnectorObjectBuilder>> users = Collections.synchronizedList(new ArrayList<>());
+        List<Supplier<T>> pending = Collections.synchronizedList(new ArrayList<>());
+
+        // a base DN not reporting any new cookie keeps the one it was given
+        List<byte[]> outCookies = onEachBaseDn((index, baseDn) -> Optional.ofNullable(dosync(
+                objectClass, baseDn, createOrUpdate, delete, users, pending, cookies.get(index), options)).
+                orElse(cookies.get(index)));
+
+        ldUpUtils.addAccountGroups(objectClass, users, options);
         List<T> objects = new ArrayList<>();
+        pending.forEach(conversion -> objects.add(conversion.get()));
+
+        Optional.ofNullable(encodeCookies(outCookies)).
+                ifPresent(value -> objects.forEach(object -> outCookieReporter.accept(object, value)));
+
+        return objects;
+    }
+
+    protected <T> byte[] dosync(
+            final ObjectClass objectClass,
+            final String baseDn,
+            final Function<ConnectorObjectBuilder, T> createOrUpdate,
+            final Function<ConnectorObjectBuilder, T> delete,
+            final List<Pair<String, ConnectorObjectBuilder>> users,
+            final List<Supplier<T>> pending,
+            final byte[] cookie,
+            final OperationOptions options) {
+
+        AtomicReference<byte[]> outCookie = new AtomicReference<>();
 
         SingleConnectionFactory scf = new SingleConnectionFactory(ldUpUtils.getConnectionConfig());
         SyncReplClient client = new SyncReplClient(scf, false);
@@ -70,17 +191,24 @@ abstract class AbstractLdUpSyncOp {
             client.setOnEntry(entry -> {
                 LOG.ok("SyncRepl entry received: {0}", entry);
 
+                if (ldUpUtils.isExcludedClientSide(entry.getDn())) {
+                    LOG.ok("Skipping {0}, inside an excluded DN", entry.getDn());
+                    return;
+                }
+
                 SyncStateControl ssc = (SyncStateControl) entry.getControl(SyncStateControl.OID);
 
                 switch (ssc.getSyncState()) {
                     case ADD:
                     case MODIFY:
-                        objects.add(createOrUpdate.apply(
-                                ldUpUtils.connectorObjectBuilder(
-                                        objectClass,
-                                        new Uid(ssc.getEntryUuid().toString()),
-                                        entry,
-                                        options)));
+                        ConnectorObjectBuilder object = ldUpUtils.connectorObjectBuilder(
+                                objectClass,
+                                new Uid(ssc.getEntryUuid().toString()),
+                                entry,
+                                options,
+                                false);
+                        users.add(Pair.of(entry.getDn(), object));
+                        pending.add(() -> createOrUpdate.apply(object));
                         break;
 
                     // this is never reported with persist == false 
@@ -95,24 +223,17 @@ abstract class AbstractLdUpSyncOp {
                 if (message.getMessageType() == SyncInfoMessage.Type.SYNC_ID_SET) {
                     message.getEntryUuids().forEach(entryUUID -> {
                         try {
-                            SearchResponse response = SearchOperation.builder().
-                                    factory(ldUpUtils.getConnectionFactory()).
-                                    throwIf(ResultPredicate.NOT_SUCCESS).
-                                    build().execute(
-                                            SearchRequest.builder().
-                                                    dn(ldUpUtils.getConfiguration().getBaseDn()).
-                                                    scope(SearchScope.SUBTREE).
-                                                    filter("entryUUID=" + entryUUID.toString()).
-                                                    returnAttributes(ReturnAttributes.NONE.value()).
-                                                    build());
-                            if (response.getEntries().isEmpty()) {
+                            // the entry might have been moved under another base DN
+                            List<LdapEntry> entries = ldUpUtils.searchBaseDns(
+                                    "entryUUID=" + entryUUID.toString(), ReturnAttributes.NONE.value());
+                            if (entries.isEmpty()) {
                                 LOG.ok("No match while searching for entryUUID={0}: it was a DELETE", entryUUID);
 
                                 ConnectorObjectBuilder object = new ConnectorObjectBuilder().
                                         setObjectClass(objectClass).
                                         setUid(new Uid(entryUUID.toString())).
                                         setName(entryUUID.toString());
-                                objects.add(delete.apply(object));
+                                pending.add(() -> delete.apply(object));
                             } else {
                                 LOG.ok("Match found while searching for entryUUID={0}: discard", entryUUID);
                             }
@@ -127,28 +248,27 @@ abstract class AbstractLdUpSyncOp {
 
                 SyncDoneControl syncDoneControl = (SyncDoneControl) result.getControl(SyncDoneControl.OID);
 
-                objects.forEach(object -> outCookieReporter.accept(
-                        object, Base64.getEncoder().encodeToString(syncDoneControl.getCookie())));
+                outCookie.set(syncDoneControl.getCookie());
             });
             client.setOnException(e -> LOG.error(e, "SyncRepl exception thrown"));
 
             SearchRequest.Builder searchRequestBuilder = SearchRequest.builder().
-                    dn(ldUpUtils.getConfiguration().getBaseDn()).
+                    dn(baseDn).
                     scope(SearchScope.SUBTREE).
-                    filter("objectClass=" + ldUpUtils.ldapObjectClass(objectClass));
-            ldUpUtils.returnAttributes(options).ifPresent(searchRequestBuilder::returnAttributes);
+                    filter(ldUpUtils.withExclusions("objectClass=" + ldUpUtils.ldapObjectClass(objectClass))).
+                    returnAttributes(ldUpUtils.returnAttributes(objectClass, options));
 
             DefaultCookieManager cookieManager = new DefaultCookieManager();
             Optional.ofNullable(cookie).ifPresent(cookieManager::writeCookie);
 
             client.send(searchRequestBuilder.build(), cookieManager).await();
         } catch (LdapException e) {
-            throw new ConnectorException("While managing SyncRepl events for " + objectClass, e);
+            throw new ConnectorException("While managing SyncRepl events for " + objectClass + " under " + baseDn, e);
         } finally {
             client.close();
             scf.close();
         }
 
-        return objects;
+        return outCookie.get();
     }
 }
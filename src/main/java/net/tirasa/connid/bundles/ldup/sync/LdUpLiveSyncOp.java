@@ -15,9 +15,7 @@
  */
 package net.tirasa.connid.bundles.ldup.sync;
 
-import java.util.Base64;
 import java.util.List;
-import java.util.Optional;
 import java.util.function.Function;
 import net.tirasa.connid.bundles.ldup.LdUpConstants;
 import net.tirasa.connid.bundles.ldup.LdUpUtils;
@@ -47,8 +45,7 @@ public class LdUpLiveSyncOp extends AbstractLdUpSyncOp implements LiveSyncOp {
                 Function.identity(),
                 (object, cookie) -> object.addAttribute(AttributeBuilder.build(
                         LdUpConstants.SYNCREPL_COOKIE_NAME, cookie)),
-                Optional.ofNullable(options.getPagedResultsCookie()).
-                        map(cookie -> Base64.getDecoder().decode(cookie)).orElse(null),
+                options.getPagedResultsCookie(),
                 options);
 
         objects.forEach(object -> handler.handle(new LiveSyncDeltaBuilder().setObject(object.build()).build()));
@@ -15,7 +15,6 @@
  */
 package net.tirasa.connid.bundles.ldup.sync;
 
-import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
@@ -47,35 +46,39 @@ public class LdUpSyncOp extends AbstractLdUpSyncOp implements SyncOp {
 
     @Override
     public SyncToken getLatestSyncToken(final ObjectClass objectClass) {
-        AtomicReference<String> latest = new AtomicReference<>();
+        return Optional.ofNullable(encodeCookies(onEachBaseDn((index, baseDn) -> {
+            AtomicReference<byte[]> latest = new AtomicReference<>();
 
-        SingleConnectionFactory scf = new SingleConnectionFactory(ldUpUtils.getConnectionConfig());
-        SyncReplClient client = new SyncReplClient(scf, false);
-        try {
-            scf.initialize();
+            SingleConnectionFactory scf = new SingleConnectionFactory(ldUpUtils.getConnectionConfig());
+            SyncReplClient client = new SyncReplClient(scf, false);
+            try {
+                scf.initialize();
 
-            client.setOnResult(result -> {
-                LOG.ok("SyncRepl result received: {0}", result);
+                client.setOnResult(result -> {
+                    LOG.ok("SyncRepl result received: {0}", result);
 
-                SyncDoneControl syncDoneControl = (SyncDoneControl) result.getControl(SyncDoneControl.OID);
+                    SyncDoneControl syncDoneControl = (SyncDoneControl) result.getControl(SyncDoneControl.OID);
 
-                latest.set(Base64.getEncoder().encodeToString(syncDoneControl.getCookie()));
-            });
-            client.setOnException(e -> LOG.error(e, "SyncRepl exception thrown"));
+                    latest.set(syncDoneControl.getCookie());
+                });
+                client.setOnException(e -> LOG.error(e, "SyncRepl exception thrown"));
 
-            client.send(SearchRequest.builder().
-                    dn(ldUpUtils.getConfiguration().getBaseDn()).
-                    scope(SearchScope.SUBTREE).
-                    filter("objectClass=" + ldUpUtils.ldapObjectClass(objectClass)).build(),
-                    new DefaultCookieManager()).await();
-        } catch (LdapException e) {
-            throw new ConnectorException("While managing SyncRepl events for " + objectClass, e);
-        } finally {
-            client.close();
-            scf.close();
-        }
+                client.send(SearchRequest.builder().
+                        dn(baseDn).
+                        scope(SearchScope.SUBTREE).
+                        filter(ldUpUtils.withExclusions("objectClass=" + ldUpUtils.ldapObjectClass(objectClass))).
+                        build(),
+                        new DefaultCookieManager()).await();
+            } catch (LdapException e) {
+                throw new ConnectorException(
+                        "While managing SyncRepl events for " + objectClass + " under " + baseDn, e);
+            } finally {
+                client.close();
+                scf.close();
+            }
 
-        return Optional.ofNullable(latest.get()).map(SyncToken::new).orElse(null);
+            return latest.get();
+        }))).map(SyncToken::new).orElse(null);
     }
 
     @Override
@@ -94,7 +97,7 @@ public class LdUpSyncOp extends AbstractLdUpSyncOp implements SyncOp {
                         setDeltaType(SyncDeltaType.DELETE).
                         setObject(object.build()),
                 (syncDelta, cookie) -> syncDelta.setToken(new SyncToken(cookie)),
-                Optional.ofNullable(token).map(t -> Base64.getDecoder().decode(t.getValue().toString())).orElse(null),
+                Optional.ofNullable(token).map(t -> t.getValue().toString()).orElse(null),
                 options);
 
         objects.forEach(object -> handler.handle(object.build()));
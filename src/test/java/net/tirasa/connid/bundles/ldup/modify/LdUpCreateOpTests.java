@@ -43,9 +43,16 @@ import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
 import org.identityconnectors.framework.common.objects.PredefinedAttributes;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.junit.jupiter.api.Test;
+import org.ldaptive.AttributeModification;
 import org.ldaptive.DeleteOperation;
 import org.ldaptive.DeleteRequest;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
+import org.ldaptive.ModifyOperation;
+import org.ldaptive.ModifyRequest;
+import org.ldaptive.ModifyResponse;
+import org.ldaptive.handler.ResultPredicate;
 
 class LdUpCreateOpTests extends AbstractLdUpConnectorTests {
 
@@ -95,6 +102,29 @@ class LdUpCreateOpTests extends AbstractLdUpConnectorTests {
         delete(created.getName().getNameValue());
     }
 
+    @Test
+    void createAccountWithPostRead() throws LdapException {
+        ConnectorFacade facade = newFacade();
+
+        ConnectorObject created = doCreateAccount(facade, null);
+        try {
+            // the Uid returned via post-read control matches the one read afterwards
+            ModifyResponse response = ModifyOperation.builder().
+                    factory(singleConnectionFactory()).
+                    throwIf(ResultPredicate.NOT_SUCCESS).
+                    build().execute(ModifyRequest.builder().
+                            dn(created.getName().getNameValue()).
+                            modifications(new AttributeModification(
+                                    AttributeModification.Type.REPLACE, new LdapAttribute("sn", "Worker"))).
+                            controls(new LdUpPostReadControl("entryUUID")).
+                            build());
+            LdapEntry entry = LdUpPostReadControl.entry(response).orElseThrow();
+            assertEquals(created.getUid().getUidValue(), entry.getAttribute("entryUUID").getStringValue());
+        } finally {
+            delete(created.getName().getNameValue());
+        }
+    }
+
     private ConnectorObject doCreateGroup(final ConnectorFacade facade) {
         Name name = new Name("cn=Another Group,ou=Groups,o=isp");
         Set<Attribute> attributes = Set.of(
@@ -20,6 +20,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
@@ -27,12 +29,16 @@ import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import net.tirasa.connid.bundles.ldup.AbstractLdUpConnectorTests;
 import net.tirasa.connid.bundles.ldup.LdUpConfiguration;
+import net.tirasa.connid.bundles.ldup.LdUpDnCache;
+import net.tirasa.connid.bundles.ldup.LdUpUtils;
 import org.identityconnectors.common.IOUtil;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeDelta;
@@ -207,6 +213,123 @@ class LdUpUpdateOpTests extends AbstractLdUpConnectorTests {
         facade.update(ObjectClass.ACCOUNT, newUid, Set.of(new Name(USER01_DN), noNumber), null);
     }
 
+    @Test
+    void dnCache() {
+        LdUpConfiguration config = newConfiguration();
+        config.setDnCacheSize(100);
+        ConnectorFacade facade = newFacade(config);
+        ConnectorObject bugs = searchByAttribute(facade, ObjectClass.ACCOUNT, new Name(USER01_DN)).orElseThrow();
+
+        // 1. the second update finds the DN in cache
+        OperationOptions options = new OperationOptionsBuilder().setAttributesToGet("telephoneNumber").build();
+        assertEquals(bugs.getUid(), facade.update(ObjectClass.ACCOUNT, bugs.getUid(),
+                Set.of(AttributeBuilder.build("telephoneNumber", NUMBER1)), null));
+        assertEquals(bugs.getUid(), facade.update(ObjectClass.ACCOUNT, bugs.getUid(),
+                Set.of(AttributeBuilder.build("telephoneNumber", NUMBER2)), null));
+        assertEquals(NUMBER2, facade.getObject(ObjectClass.ACCOUNT, bugs.getUid(), options).
+                getAttributeByName("telephoneNumber").getValue().get(0));
+
+        // 2. rename, then update again: the new DN is found
+        Uid newUid = facade.update(ObjectClass.ACCOUNT, bugs.getUid(), Set.of(new Name(DAFFY_DUCK_DN)), null);
+        facade.update(ObjectClass.ACCOUNT, newUid, Set.of(AttributeBuilder.build("telephoneNumber")), null);
+        assertEquals(new Name(DAFFY_DUCK_DN), facade.getObject(ObjectClass.ACCOUNT, newUid, null).getName());
+        newUid = facade.update(ObjectClass.ACCOUNT, newUid, Set.of(new Name(USER01_DN)), null);
+        assertEquals(new Name(USER01_DN), facade.getObject(ObjectClass.ACCOUNT, newUid, null).getName());
+
+        // 3. a Uid unknown for an object class is still found for others
+        Uid accountUid = newUid;
+        assertThrows(UnknownUidException.class, () -> facade.update(ObjectClass.GROUP, accountUid,
+                Set.of(AttributeBuilder.build("description", "none")), null));
+        assertEquals(accountUid, facade.update(ObjectClass.ACCOUNT, accountUid,
+                Set.of(AttributeBuilder.build("telephoneNumber")), null));
+
+        // 4. create, update and delete: the deleted Uid is then unknown
+        Uid uid = facade.create(ObjectClass.ACCOUNT, Set.of(
+                new Name(RENAME_ONE_TEST_DN),
+                AttributeBuilder.build("uid", "rename.one"),
+                AttributeBuilder.build("cn", "rename.one"),
+                AttributeBuilder.build("sn", "One")), null);
+        assertEquals(uid, facade.update(ObjectClass.ACCOUNT, uid,
+                Set.of(AttributeBuilder.build("telephoneNumber", NUMBER3)), null));
+        facade.delete(ObjectClass.ACCOUNT, uid, null);
+        assertThrows(UnknownUidException.class, () -> facade.update(ObjectClass.ACCOUNT, uid,
+                Set.of(AttributeBuilder.build("telephoneNumber", NUMBER1)), null));
+        assertThrows(UnknownUidException.class, () -> facade.delete(ObjectClass.ACCOUNT, uid, null));
+    }
+
+    @Test
+    void dnCacheKeys() {
+        LdUpConfiguration config = newConfiguration();
+        config.setDnCacheSize(100);
+        LdUpUtils ldUpUtils = new LdUpUtils(config);
+        try {
+            LdUpDnCache cache = new LdUpDnCache(ldUpUtils);
+
+            // caseIgnoreMatch: values differing only in case are the same
+            cache.put("uid", "Bugs", USER01_DN, "inetOrgPerson");
+            assertEquals(USER01_DN, cache.get("UID", "bugs").getDn());
+
+            // caseExactMatch: values differing only in case are distinct
+            cache.put("labeledURI", "http://example.org/A", USER01_DN, "inetOrgPerson");
+            assertNull(cache.get("labeledURI", "http://example.org/a"));
+            cache.put("labeledURI", "http://example.org/a", DAFFY_DUCK_DN, "inetOrgPerson");
+            assertEquals(USER01_DN, cache.get("labeledURI", "http://example.org/A").getDn());
+            assertEquals(DAFFY_DUCK_DN, cache.get("labeledURI", "http://example.org/a").getDn());
+
+            // resolutions are for the object class they were found for
+            assertTrue(cache.get("uid", "bugs").isKnown("inetOrgPerson"));
+            assertFalse(cache.get("uid", "bugs").isKnown("groupOfNames"));
+        } finally {
+            ldUpUtils.dispose();
+        }
+    }
+
+    @Test
+    void staleDnTrustedFromCache() {
+        ConnectorObject user = searchByAttribute(newFacade(), ObjectClass.ACCOUNT, new Name(USER01_DN)).orElseThrow();
+
+        LdUpConfiguration config = newConfiguration();
+        config.setDnCacheSize(100);
+        LdUpUtils ldUpUtils = new LdUpUtils(config) {
+
+            private final LdUpDnCache cache = new LdUpDnCache(this) {
+
+                @Override
+                public boolean isLive() {
+                    return true;
+                }
+            };
+
+            @Override
+            public Optional<LdUpDnCache> getDnCache() {
+                return Optional.of(cache);
+            }
+        };
+        try {
+            LdUpDnCache cache = ldUpUtils.getDnCache().orElseThrow();
+            String idAttr = ldUpUtils.getIdAttribute(ObjectClass.ACCOUNT);
+            String goneDn = "uid=gone,ou=People,o=isp";
+            Set<Attribute> attrs = Set.of(AttributeBuilder.build("telephoneNumber", NUMBER1));
+
+            // a DN cached for another object class is not trusted
+            cache.put(idAttr, user.getUid().getUidValue(), goneDn, config.getGroupObjectClass());
+            assertEquals(user.getUid(),
+                    new LdUpUpdateOp(ldUpUtils).update(ObjectClass.ACCOUNT, user.getUid(), attrs, null));
+            assertEquals(USER01_DN, cache.get(idAttr, user.getUid().getUidValue()).getDn());
+
+            // a stale DN trusted from cache makes the uid unknown, and is dropped
+            cache.put(idAttr, user.getUid().getUidValue(), goneDn, config.getAccountObjectClass());
+            assertThrows(UnknownUidException.class,
+                    () -> new LdUpUpdateOp(ldUpUtils).update(ObjectClass.ACCOUNT, user.getUid(), attrs, null));
+            assertNull(cache.get(idAttr, user.getUid().getUidValue()));
+
+            new LdUpUpdateOp(ldUpUtils).update(
+                    ObjectClass.ACCOUNT, user.getUid(), Set.of(AttributeBuilder.build("telephoneNumber")), null);
+        } finally {
+            ldUpUtils.dispose();
+        }
+    }
+
     @Test
     void renameWhenUidNotDefault() {
         LdUpConfiguration config = newConfiguration();
@@ -16,12 +16,16 @@
 package net.tirasa.connid.bundles.ldup.search;
 
 import static net.tirasa.connid.bundles.ldup.search.LdUpFilter.forEntryDN;
+import static net.tirasa.connid.bundles.ldup.search.LdUpFilter.forEntryDNs;
 import static net.tirasa.connid.bundles.ldup.search.LdUpFilter.forNativeFilter;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.List;
 import net.tirasa.connid.bundles.ldup.AbstractLdUpConnectorTests;
 import net.tirasa.connid.bundles.ldup.LdUpUtils;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
@@ -29,6 +33,7 @@ import org.identityconnectors.framework.common.objects.filter.ContainsFilter;
 import org.identityconnectors.framework.common.objects.filter.EndsWithFilter;
 import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 import org.identityconnectors.framework.common.objects.filter.EqualsIgnoreCaseFilter;
+import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import org.identityconnectors.framework.common.objects.filter.GreaterThanFilter;
 import org.identityconnectors.framework.common.objects.filter.GreaterThanOrEqualFilter;
@@ -56,9 +61,13 @@ class LdUpFilterTranslatorTests extends AbstractLdUpConnectorTests {
                 createAndExpression(
                         forEntryDN("o=isp").withNativeFilter("(foo=1)"),
                         forNativeFilter("(bar=2)")));
-        assertNull(newTranslator().createAndExpression(
-                forEntryDN("o=isp").withNativeFilter("(foo=1)"),
-                forEntryDN("dc=example,dc=org").withNativeFilter("(bar=2)")));
+        assertEquals(forEntryDNs(List.of()).withNativeFilter("(&(foo=1)(bar=2))"), newTranslator().
+                createAndExpression(
+                        forEntryDN("o=isp").withNativeFilter("(foo=1)"),
+                        forEntryDN("dc=example,dc=org").withNativeFilter("(bar=2)")));
+        assertEquals(forEntryDN("o=isp"), newTranslator().createAndExpression(
+                forEntryDNs(List.of("o=isp", "dc=example,dc=org")),
+                forEntryDN("O=ISP")));
     }
 
     @Test
@@ -66,8 +75,13 @@ class LdUpFilterTranslatorTests extends AbstractLdUpConnectorTests {
         assertEquals(forNativeFilter("(|(foo=1)(bar=2))"),
                 newTranslator().createOrExpression(forNativeFilter("(foo=1)"), forNativeFilter(
                         "(bar=2)")));
-        assertNull(newTranslator().createOrExpression(
+        assertEquals(forNativeFilter("(|(foo=1)(bar=2)(baz=3))"), newTranslator().createOrExpression(
+                newTranslator().createOrExpression(forNativeFilter("(foo=1)"), forNativeFilter("(bar=2)")),
+                forNativeFilter("(baz=3)")));
+        assertEquals(forNativeFilter("(|(entryDN=o=isp)(foo=1))"), newTranslator().createOrExpression(
                 forEntryDN("o=isp"), forNativeFilter("(foo=1)")));
+        assertEquals(forEntryDNs(List.of("o=isp", "dc=example,dc=org")), newTranslator().createOrExpression(
+                forEntryDN("o=isp"), forEntryDNs(List.of("dc=example,dc=org", "O=ISP"))));
     }
 
     @Test
@@ -187,5 +201,42 @@ class LdUpFilterTranslatorTests extends AbstractLdUpConnectorTests {
         containsAllValues = (ContainsAllValuesFilter) FilterBuilder.containsAllValues(AttributeBuilder.build("entryDN",
                 "o=isp", "o=Acme,o=isp"));
         assertNull(newTranslator().createContainsAllValuesExpression(containsAllValues, false));
+
+        assertThrows(ConnectorException.class, () -> forEntryDN(null));
+    }
+
+    @Test
+    public void cached() {
+        LdUpUtils ldUpUtils = new LdUpUtils(newConfiguration());
+        LdUpFilterCache cache = new LdUpFilterCache(ldUpUtils, 10);
+        LdUpFilterTranslator translator = new LdUpFilterTranslator(ldUpUtils, ObjectClass.ACCOUNT);
+
+        Filter filter = FilterBuilder.and(
+                FilterBuilder.equalTo(AttributeBuilder.build("cn", "user01")),
+                FilterBuilder.startsWith(AttributeBuilder.build("sn", "Smi")));
+        assertEquals(translator.translate(filter), cache.translate(ObjectClass.ACCOUNT, filter, translator::translate));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        filter = FilterBuilder.and(
+                FilterBuilder.equalTo(AttributeBuilder.build("cn", "user(02)*")),
+                FilterBuilder.startsWith(AttributeBuilder.build("sn", "O\\Brien")));
+        assertEquals(translator.translate(filter), cache.translate(ObjectClass.ACCOUNT, filter, translator::translate));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // empty values make a different structure
+        filter = FilterBuilder.and(
+                FilterBuilder.equalTo(AttributeBuilder.build("cn", "")),
+                FilterBuilder.startsWith(AttributeBuilder.build("sn", "Smi")));
+        assertEquals(translator.translate(filter), cache.translate(ObjectClass.ACCOUNT, filter, translator::translate));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // DN attributes are not cached
+        filter = FilterBuilder.equalTo(AttributeBuilder.build("entryDN", "o=isp"));
+        assertEquals(translator.translate(filter), cache.translate(ObjectClass.ACCOUNT, filter, translator::translate));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
     }
 }
@@ -19,17 +19,30 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import net.tirasa.connid.bundles.ldup.AbstractLdUpConnectorTests;
 import net.tirasa.connid.bundles.ldup.LdUpConfiguration;
+import net.tirasa.connid.bundles.ldup.LdUpConstants;
 import net.tirasa.connid.bundles.ldup.LdUpUtils;
 import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
@@ -40,18 +53,30 @@ import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.PredefinedAttributes;
+import org.identityconnectors.framework.common.objects.QualifiedUid;
 import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SortKey;
 import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.identityconnectors.test.common.TestHelpers;
 import org.identityconnectors.test.common.ToListResultsHandler;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.ldaptive.AttributeModification;
 import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
 import org.ldaptive.ModifyOperation;
 import org.ldaptive.ModifyRequest;
+import org.ldaptive.ReturnAttributes;
+import org.ldaptive.SearchOperationHandle;
+import org.ldaptive.SearchRequest;
 import org.ldaptive.SingleConnectionFactory;
+import org.ldaptive.control.SortRequestControl;
+import org.ldaptive.control.VirtualListViewRequestControl;
 import org.ldaptive.handler.ResultPredicate;
 
 class LdUpSearchOpTests extends AbstractLdUpConnectorTests {
@@ -82,6 +107,429 @@ class LdUpSearchOpTests extends AbstractLdUpConnectorTests {
         assertTrue(handler.getObjects().isEmpty());
     }
 
+    @Test
+    void ldapFilterWithEntryDNs() {
+        LdUpSearchOp searchOp = new LdUpSearchOp(new LdUpUtils(newConfiguration()));
+
+        LdUpFilter filter = LdUpFilter.forEntryDN(USER01_DN).
+                or(LdUpFilter.forEntryDN("cn=user02,ou=People,o=isp")).
+                or(LdUpFilter.forEntryDN("dc=foo,dc=bar"));
+        ToListResultsHandler handler = new ToListResultsHandler();
+        searchOp.executeQuery(ObjectClass.ACCOUNT, filter, handler, new OperationOptionsBuilder().build());
+        assertEquals(2, handler.getObjects().size());
+
+        filter = LdUpFilter.forEntryDN(USER01_DN).or(LdUpFilter.forNativeFilter("(cn=user02)"));
+        handler = new ToListResultsHandler();
+        searchOp.executeQuery(ObjectClass.ACCOUNT, filter, handler, new OperationOptionsBuilder().build());
+        assertEquals(2, handler.getObjects().size());
+    }
+
+    @Test
+    void nativeFilterOption() {
+        ConnectorFacade facade = newFacade();
+
+        List<ConnectorObject> objects = TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null,
+                new OperationOptionsBuilder().setOption(LdUpConstants.NATIVE_FILTER_OPTION, "(cn=user01)").build());
+        assertEquals(1, objects.size());
+        assertEquals(USER01_DN, objects.get(0).getName().getNameValue());
+
+        objects = TestHelpers.searchToList(facade, ObjectClass.ACCOUNT,
+                FilterBuilder.equalTo(AttributeBuilder.build("cn", "user01")),
+                new OperationOptionsBuilder().setOption(LdUpConstants.NATIVE_FILTER_OPTION, "(!(cn=user01))").build());
+        assertTrue(objects.isEmpty());
+
+        assertThrows(ConnectorException.class, () -> TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null,
+                new OperationOptionsBuilder().setOption(LdUpConstants.NATIVE_FILTER_OPTION, "(cn=").build()));
+    }
+
+    @Test
+    void countOnly() {
+        ConnectorFacade facade = newFacade();
+        OperationOptions options = new OperationOptionsBuilder().
+                setOption(LdUpConstants.COUNT_ONLY_OPTION, true).build();
+
+        int all = TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null).size();
+
+        List<ConnectorObject> objects = new ArrayList<>();
+        SearchResult result = facade.search(ObjectClass.ACCOUNT, null, objects::add, options);
+        assertTrue(objects.isEmpty());
+        assertEquals(all, result.getRemainingPagedResults());
+        assertNull(result.getPagedResultsCookie());
+        assertTrue(result.isAllResultsReturned());
+
+        result = facade.search(ObjectClass.ACCOUNT,
+                FilterBuilder.equalTo(AttributeBuilder.build("cn", "user01")), objects::add, options);
+        assertTrue(objects.isEmpty());
+        assertEquals(1, result.getRemainingPagedResults());
+        assertTrue(result.isAllResultsReturned());
+
+        // not affected by filters re-applied by the framework, nor by attributes to get
+        result = facade.search(ObjectClass.ACCOUNT,
+                FilterBuilder.startsWith(AttributeBuilder.build("cn", "user0")), objects::add,
+                new OperationOptionsBuilder(options).setAttributesToGet("cn").build());
+        assertTrue(objects.isEmpty());
+        assertTrue(result.getRemainingPagedResults() >= 1);
+    }
+
+    @Test
+    void parallelScan() {
+        Set<Name> expected = new HashSet<>();
+        TestHelpers.searchToList(newFacade(), ObjectClass.ACCOUNT, null).forEach(user -> expected.add(user.getName()));
+        assertFalse(expected.isEmpty());
+
+        LdUpConfiguration config = newConfiguration();
+        config.setScanParallelism(4);
+        List<ConnectorObject> users = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null);
+        assertEquals(expected.size(), users.size());
+        users.forEach(user -> assertTrue(expected.contains(user.getName())));
+
+        config.setScanPartitionAttribute("uid");
+        users = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null);
+        assertEquals(expected.size(), users.size());
+        users.forEach(user -> assertTrue(expected.contains(user.getName())));
+    }
+
+    @Test
+    void parallelScanMultiValuedPartitionAttribute() throws LdapException {
+        Set<Name> expected = new HashSet<>();
+        TestHelpers.searchToList(newFacade(), ObjectClass.ACCOUNT, null).forEach(user -> expected.add(user.getName()));
+
+        SingleConnectionFactory cf = singleConnectionFactory();
+        ModifyOperation modifyOp = ModifyOperation.builder().
+                factory(cf).
+                throwIf(ResultPredicate.NOT_SUCCESS).
+                build();
+        // found in three partitions, only reported by the one of its smallest value
+        modifyOp.execute(ModifyRequest.builder().
+                dn(USER01_DN).
+                modifications(new AttributeModification(AttributeModification.Type.ADD,
+                        new LdapAttribute("uid", "0user01", "Auser01"))).
+                build());
+        try {
+            LdUpConfiguration config = newConfiguration();
+            config.setScanParallelism(4);
+            config.setScanPartitionAttribute("uid");
+            List<ConnectorObject> users = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null,
+                    new OperationOptionsBuilder().setAttributesToGet(Name.NAME).build());
+            assertEquals(expected.size(), users.size());
+            assertEquals(expected, users.stream().map(ConnectorObject::getName).collect(Collectors.toSet()));
+            // only fetched to tell the owning partition
+            users.forEach(user -> assertNull(user.getAttributeByName("uid")));
+
+            // prefixes of any length, the other entries found by the last partition
+            config.setScanPartitionPrefixes("0", "us", "a");
+            users = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null,
+                    new OperationOptionsBuilder().setAttributesToGet(Name.NAME).build());
+            assertEquals(expected.size(), users.size());
+            assertEquals(expected, users.stream().map(ConnectorObject::getName).collect(Collectors.toSet()));
+        } finally {
+            modifyOp.execute(ModifyRequest.builder().
+                    dn(USER01_DN).
+                    modifications(new AttributeModification(AttributeModification.Type.DELETE,
+                            new LdapAttribute("uid", "0user01", "Auser01"))).
+                    build());
+            cf.close();
+        }
+    }
+
+    @Test
+    void parallelScanWithGroups() {
+        OperationOptions options = new OperationOptionsBuilder().
+                setAttributesToGet(Name.NAME, PredefinedAttributes.GROUPS_NAME).build();
+        Map<Name, Set<Object>> expected = new HashMap<>();
+        TestHelpers.searchToList(newFacade(), ObjectClass.ACCOUNT, null, options).forEach(user -> expected.put(
+                user.getName(), new HashSet<>(user.getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue())));
+        assertFalse(expected.isEmpty());
+        assertTrue(expected.values().stream().anyMatch(groups -> !groups.isEmpty()));
+
+        // as many pooled connections as partitions: the consumer still gets one to resolve group memberships
+        LdUpConfiguration config = newConfiguration();
+        int partitions = config.getScanPartitionPrefixes().length + 1;
+        config.setScanPartitionAttribute("uid");
+        config.setScanParallelism(partitions);
+        config.setPoolMaxSize(partitions);
+        config.setPageSize(1);
+        List<ConnectorObject> users = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null, options);
+        assertEquals(expected.size(), users.size());
+        users.forEach(user -> assertEquals(
+                expected.get(user.getName()),
+                new HashSet<>(user.getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue())));
+    }
+
+    @Test
+    void groupsWithSinglePooledConnection() {
+        OperationOptions options = new OperationOptionsBuilder().
+                setAttributesToGet(Name.NAME, PredefinedAttributes.GROUPS_NAME).build();
+        Map<Name, Set<Object>> expected = new HashMap<>();
+        TestHelpers.searchToList(newFacade(), ObjectClass.ACCOUNT, null, options).forEach(user -> expected.put(
+                user.getName(), new HashSet<>(user.getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue())));
+        assertTrue(expected.values().stream().anyMatch(groups -> !groups.isEmpty()));
+
+        // group memberships are searched for through the connection the entries are received from
+        LdUpConfiguration config = newConfiguration();
+        config.setPoolMinSize(1);
+        config.setPoolMaxSize(1);
+        config.setPageSize(1);
+        config.setGroupBatchSize(1);
+        List<ConnectorObject> users = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null, options);
+        assertEquals(expected.size(), users.size());
+        users.forEach(user -> assertEquals(
+                expected.get(user.getName()),
+                new HashSet<>(user.getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue())));
+
+        config.setGroupBatchSize(2);
+        users = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null, options);
+        assertEquals(expected.size(), users.size());
+        users.forEach(user -> assertEquals(
+                expected.get(user.getName()),
+                new HashSet<>(user.getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue())));
+
+        // pages are prefetched through the same connection, too
+        config.setPageLookahead(1);
+        users = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null, options);
+        assertEquals(expected.size(), users.size());
+        users.forEach(user -> assertEquals(
+                expected.get(user.getName()),
+                new HashSet<>(user.getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue())));
+    }
+
+    @Test
+    void stopOnHandlerFalse() {
+        assertTrue(TestHelpers.searchToList(newFacade(), ObjectClass.ACCOUNT, null).size() > 1);
+
+        LdUpConfiguration config = newConfiguration();
+        List<ConnectorObject> objects = new ArrayList<>();
+        newFacade(config).search(ObjectClass.ACCOUNT, null, object -> !objects.add(object), null);
+        assertEquals(1, objects.size());
+
+        config.setPageSize(1);
+        config.setPageLookahead(1);
+        objects.clear();
+        newFacade(config).search(ObjectClass.ACCOUNT, null, object -> !objects.add(object), null);
+        assertEquals(1, objects.size());
+
+        config.setScanParallelism(4);
+        objects.clear();
+        newFacade(config).search(ObjectClass.ACCOUNT, null, object -> !objects.add(object), null);
+        assertEquals(1, objects.size());
+
+        config.setGroupBatchSize(10);
+        objects.clear();
+        newFacade(config).search(ObjectClass.ACCOUNT, null, object -> !objects.add(object),
+                new OperationOptionsBuilder().setAttributesToGet(
+                        Name.NAME, PredefinedAttributes.GROUPS_NAME).build());
+        assertEquals(1, objects.size());
+    }
+
+    @Test
+    void abandonOnHandlerFalse() {
+        assertTrue(TestHelpers.searchToList(newFacade(), ObjectClass.ACCOUNT, null).size() > 1);
+
+        LdUpConfiguration config = newConfiguration();
+        config.setPoolMinSize(1);
+        config.setPoolMaxSize(1);
+        LdUpUtils ldUpUtils = new LdUpUtils(config);
+        try {
+            Set<SearchOperationHandle> abandoned = ConcurrentHashMap.newKeySet();
+            LdUpSearchOp searchOp = new LdUpSearchOp(ldUpUtils) {
+
+                @Override
+                protected LdUpEntryQueue entryQueue(final int lookahead, final int pageSize, final Instant deadline) {
+                    return new LdUpEntryQueue(responseTimeout(), lookahead, pageSize, deadline) {
+
+                        private final AtomicInteger received = new AtomicInteger();
+
+                        @Override
+                        public LdapEntry apply(final LdapEntry entry) {
+                            // hold the second entry back until the handler stops the search, as a large result
+                            // would: the search cannot complete before then
+                            if (received.incrementAndGet() > 1) {
+                                Instant limit = Instant.now().plusSeconds(10);
+                                while (!closed && Instant.now().isBefore(limit)) {
+                                    try {
+                                        Thread.sleep(10);
+                                    } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                        break;
+                                    }
+                                }
+                            }
+                            return super.apply(entry);
+                        }
+                    };
+                }
+
+                @Override
+                protected void abandon(final Collection<SearchOperationHandle> handles) {
+                    abandoned.addAll(handles);
+                    super.abandon(handles);
+                }
+            };
+
+            List<ConnectorObject> objects = new ArrayList<>();
+            searchOp.executeQuery(ObjectClass.ACCOUNT, null, object -> !objects.add(object),
+                    new OperationOptionsBuilder().build());
+            assertEquals(1, objects.size());
+            assertFalse(abandoned.isEmpty());
+
+            // the only pooled connection is still usable
+            ToListResultsHandler handler = new ToListResultsHandler();
+            searchOp.executeQuery(ObjectClass.ACCOUNT, null, handler, new OperationOptionsBuilder().build());
+            assertTrue(handler.getObjects().size() > 1);
+        } finally {
+            ldUpUtils.dispose();
+        }
+    }
+
+    @Test
+    void limits() {
+        assertTrue(TestHelpers.searchToList(newFacade(), ObjectClass.ACCOUNT, null).size() > 2);
+
+        LdUpConfiguration config = newConfiguration();
+        config.setSearchSizeLimit(2);
+        config.setSearchTimeLimitSeconds(10);
+        ConnectorFacade facade = newFacade(config);
+        List<ConnectorObject> objects = new ArrayList<>();
+        SearchResult result = facade.search(ObjectClass.ACCOUNT, null, objects::add, null);
+        assertEquals(2, objects.size());
+        // reaching the size limit is reported
+        assertFalse(result.isAllResultsReturned());
+
+        objects.clear();
+        result = facade.search(ObjectClass.ACCOUNT, null, objects::add,
+                new OperationOptionsBuilder().setOption(LdUpConstants.SIZE_LIMIT_OPTION, 1).build());
+        assertEquals(1, objects.size());
+        assertFalse(result.isAllResultsReturned());
+
+        objects.clear();
+        result = facade.search(ObjectClass.ACCOUNT, null, objects::add,
+                new OperationOptionsBuilder().setOption(LdUpConstants.SIZE_LIMIT_OPTION, 1000).build());
+        assertTrue(objects.size() > 2);
+        assertTrue(result.isAllResultsReturned());
+
+        // the deadline is for the whole search, not for each page
+        LdUpConfiguration paged = newConfiguration();
+        paged.setPageSize(1);
+        paged.setSearchTimeLimitSeconds(1);
+        assertThrows(OperationTimeoutException.class, () -> newFacade(paged).search(
+                ObjectClass.ACCOUNT, null, object -> {
+                    try {
+                        Thread.sleep(400);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return true;
+                }, null));
+
+        config.setScanParallelism(4);
+        assertEquals(2, TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null).size());
+
+        assertThrows(ConnectorException.class, () -> TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null,
+                new OperationOptionsBuilder().setOption(LdUpConstants.TIME_LIMIT_OPTION, "soon").build()));
+    }
+
+    @Test
+    void additionalBaseDns() {
+        ConnectorFacade facade = newFacade();
+        Set<Name> users = new HashSet<>();
+        TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null).forEach(user -> users.add(user.getName()));
+        assertFalse(users.isEmpty());
+        Set<Name> groups = new HashSet<>();
+        TestHelpers.searchToList(facade, ObjectClass.GROUP, null).forEach(group -> groups.add(group.getName()));
+        assertFalse(groups.isEmpty());
+
+        LdUpConfiguration config = newConfiguration();
+        config.setBaseDn("ou=People,o=isp");
+        config.setAdditionalBaseDns("ou=Groups,o=isp");
+        facade = newFacade(config);
+        assertEquals(users.size(), TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null).size());
+        assertEquals(groups.size(), TestHelpers.searchToList(facade, ObjectClass.GROUP, null).size());
+
+        // caller paging goes through one base DN after the other
+        List<ConnectorObject> paged = new ArrayList<>();
+        String cookie = null;
+        do {
+            boolean firstBase = cookie == null || cookie.startsWith("0:");
+            SearchResult result = facade.search(ObjectClass.GROUP, null, paged::add,
+                    new OperationOptionsBuilder().setPageSize(2).setPagedResultsCookie(cookie).build());
+            if (firstBase) {
+                // the entries under the other base DN are not estimated
+                assertEquals(-1, result.getRemainingPagedResults());
+            }
+            cookie = result.getPagedResultsCookie();
+        } while (cookie != null);
+        assertEquals(groups.size(), paged.size());
+        paged.forEach(group -> assertTrue(groups.contains(group.getName())));
+
+        config.setExcludedDns("ou=People,o=isp");
+        facade = newFacade(config);
+        assertTrue(TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null).isEmpty());
+        assertEquals(groups.size(), TestHelpers.searchToList(facade, ObjectClass.GROUP, null).size());
+
+        // left out as received when the LDAP server does not support dnSubtreeMatch
+        config = newConfiguration();
+        config.setExcludedDns("ou=People,o=isp");
+        LdUpUtils ldUpUtils = new LdUpUtils(config) {
+
+            @Override
+            public boolean isDnSubtreeMatchSupported() {
+                return false;
+            }
+        };
+        try {
+            assertEquals("(objectClass=*)", ldUpUtils.withExclusions("(objectClass=*)"));
+
+            LdUpSearchOp searchOp = new LdUpSearchOp(ldUpUtils);
+            List<ConnectorObject> objects = new ArrayList<>();
+            searchOp.executeQuery(ObjectClass.ACCOUNT, null, objects::add, new OperationOptionsBuilder().build());
+            assertTrue(objects.isEmpty());
+            searchOp.executeQuery(ObjectClass.GROUP, null, objects::add, new OperationOptionsBuilder().build());
+            assertEquals(groups.size(), objects.size());
+
+            AtomicReference<SearchResult> counted = new AtomicReference<>();
+            searchOp.executeQuery(ObjectClass.ACCOUNT, null, new SearchResultsHandler() {
+
+                @Override
+                public boolean handle(final ConnectorObject object) {
+                    return true;
+                }
+
+                @Override
+                public void handleResult(final SearchResult result) {
+                    counted.set(result);
+                }
+            }, new OperationOptionsBuilder().setOption(LdUpConstants.COUNT_ONLY_OPTION, true).build());
+            assertEquals(0, counted.get().getRemainingPagedResults());
+        } finally {
+            ldUpUtils.dispose();
+        }
+    }
+
+    @Test
+    void container() {
+        LdUpConfiguration config = newConfiguration();
+        config.setAidAttribute("entryDN");
+        ConnectorFacade facade = newFacade(config);
+        ObjectClass ou = new ObjectClass("organizationalUnit");
+
+        List<ConnectorObject> all = TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null);
+
+        List<ConnectorObject> people = TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null,
+                new OperationOptionsBuilder().setContainer(
+                        new QualifiedUid(ou, new Uid("ou=People,o=isp"))).build());
+        assertFalse(people.isEmpty());
+        assertTrue(people.size() <= all.size());
+        assertTrue(people.stream().allMatch(user -> user.getName().getNameValue().endsWith(",ou=People,o=isp")));
+
+        assertTrue(TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null,
+                new OperationOptionsBuilder().setContainer(
+                        new QualifiedUid(ou, new Uid("ou=Groups,o=isp"))).build()).isEmpty());
+
+        assertThrows(ConnectorException.class, () -> TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null,
+                new OperationOptionsBuilder().setContainer(
+                        new QualifiedUid(ou, new Uid("o=acme"))).build()));
+    }
+
     @Test
     void ldapFilterWithNonExistingEntryDN() {
         LdUpFilter filter = LdUpFilter.forEntryDN("dc=foo,dc=bar");
@@ -143,6 +591,183 @@ class LdUpSearchOpTests extends AbstractLdUpConnectorTests {
         assertEquals(1, objects.size());
     }
 
+    @Test
+    void offsetPagedSearch() {
+        List<ConnectorObject> objects = new ArrayList<>();
+        newFacade().search(
+                ObjectClass.ACCOUNT,
+                null,
+                objects::add,
+                new OperationOptionsBuilder().setPageSize(1).setPagedResultsOffset(2).build());
+        assertEquals(1, objects.size());
+    }
+
+    @Test
+    void offsetPagedSearchWindow() {
+        LdUpUtils ldUpUtils = new LdUpUtils(newConfiguration());
+        try {
+            assumeTrue(ldUpUtils.isControlSupported(VirtualListViewRequestControl.OID)
+                    && ldUpUtils.isControlSupported(SortRequestControl.OID), "VLV not supported");
+        } finally {
+            ldUpUtils.dispose();
+        }
+
+        ConnectorFacade facade = newFacade();
+        List<ConnectorObject> all = new ArrayList<>();
+        facade.search(ObjectClass.ACCOUNT, null, all::add,
+                new OperationOptionsBuilder().setPageSize(1000).setPagedResultsOffset(1).build());
+        assertTrue(all.size() > 2);
+
+        List<ConnectorObject> window = new ArrayList<>();
+        SearchResult result = facade.search(ObjectClass.ACCOUNT, null, window::add,
+                new OperationOptionsBuilder().setPageSize(2).setPagedResultsOffset(2).build());
+        assertEquals(
+                List.of(all.get(1).getUid(), all.get(2).getUid()),
+                window.stream().map(ConnectorObject::getUid).collect(Collectors.toList()));
+        assertEquals(all.size() - 3, result.getRemainingPagedResults());
+        assertEquals(all.size() == 3, result.isAllResultsReturned());
+
+        window.clear();
+        result = facade.search(ObjectClass.ACCOUNT, null, window::add,
+                new OperationOptionsBuilder().setPageSize(2).setPagedResultsOffset(all.size()).build());
+        assertEquals(
+                List.of(all.get(all.size() - 1).getUid()),
+                window.stream().map(ConnectorObject::getUid).collect(Collectors.toList()));
+        assertEquals(0, result.getRemainingPagedResults());
+        assertTrue(result.isAllResultsReturned());
+    }
+
+    @Test
+    void sortedSearch() {
+        ConnectorFacade facade = newFacade();
+        List<ConnectorObject> unsorted = TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null);
+
+        List<ConnectorObject> sorted = TestHelpers.searchToList(
+                facade,
+                ObjectClass.ACCOUNT,
+                null,
+                new OperationOptionsBuilder().setSortKeys(SortKey.descendingOrder("cn")).setPageSize(10).build());
+        assertEquals(unsorted.size(), sorted.size());
+
+        LdUpUtils ldUpUtils = new LdUpUtils(newConfiguration());
+        try {
+            assumeTrue(ldUpUtils.isControlSupported(SortRequestControl.OID), "Server-side sorting not supported");
+        } finally {
+            ldUpUtils.dispose();
+        }
+
+        List<String> cns = sorted.stream().
+                map(object -> AttributeUtil.getStringValue(object.getAttributeByName("cn"))).
+                collect(Collectors.toList());
+        List<String> expected = new ArrayList<>(cns);
+        expected.sort(String.CASE_INSENSITIVE_ORDER.reversed());
+        assertEquals(expected, cns);
+
+        // entry DNs cannot be sorted on: no sort control is sent, rather than sorting on something else
+        List<ConnectorObject> byName = TestHelpers.searchToList(
+                facade,
+                ObjectClass.ACCOUNT,
+                null,
+                new OperationOptionsBuilder().setSortKeys(SortKey.ascendingOrder(Name.NAME)).setPageSize(10).build());
+        assertEquals(unsorted.size(), byName.size());
+    }
+
+    @Test
+    void transparentlyPagedSearch() {
+        // all entries in a single page
+        List<ConnectorObject> unpaged = TestHelpers.searchToList(newFacade(), ObjectClass.ACCOUNT, null);
+        assertTrue(unpaged.size() > 1);
+
+        LdUpConfiguration config = newConfiguration();
+        config.setPageSize(1);
+        List<ConnectorObject> paged = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null);
+        assertEquals(unpaged.size(), paged.size());
+
+        config = newConfiguration();
+        config.setPageSize(1);
+        config.setPageLookahead(2);
+        List<ConnectorObject> prefetched = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null);
+        assertEquals(unpaged.size(), prefetched.size());
+    }
+
+    @Test
+    void memberOfMode() {
+        OperationOptions options = new OperationOptionsBuilder().
+                setAttributesToGet(PredefinedAttributes.GROUPS_NAME).build();
+        Set<Object> expected = new HashSet<>(searchByAttribute(
+                newFacade(), ObjectClass.ACCOUNT, new Name(USER01_DN), options).orElseThrow().
+                getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue());
+        assertFalse(expected.isEmpty());
+
+        // falls back to searching for groups if memberOf is not available
+        LdUpConfiguration config = newConfiguration();
+        config.setMemberOfMode(true);
+        ConnectorObject user = searchByAttribute(
+                newFacade(config), ObjectClass.ACCOUNT, new Name(USER01_DN), options).orElseThrow();
+        assertEquals(expected, new HashSet<>(user.getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue()));
+        assertNull(user.getAttributeByName("memberOf"));
+
+        LdUpUtils ldUpUtils = new LdUpUtils(config);
+        try {
+            assumeTrue(ldUpUtils.isMemberOfMode(), "memberOf not defined by the LDAP server schema");
+
+            // memberOf is operational, hence always asked for explicitly
+            assertTrue(ldUpUtils.returnAttributes(ObjectClass.ACCOUNT, options).
+                    contains(LdUpConstants.MEMBER_OF_ATTR_NAME));
+
+            ToListResultsHandler handler = new ToListResultsHandler();
+            new LdUpSearchOp(ldUpUtils).executeQuery(
+                    ObjectClass.ACCOUNT,
+                    LdUpFilter.forEntryDN(USER01_DN),
+                    handler,
+                    new OperationOptionsBuilder().build());
+            assertEquals(1, handler.getObjects().size());
+            assertEquals(expected, new HashSet<>(
+                    handler.getObjects().get(0).getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue()));
+        } finally {
+            ldUpUtils.dispose();
+        }
+
+        // with no attributes to get, the attributes returned by default are asked for, together with memberOf
+        ldUpUtils = new LdUpUtils(config);
+        try {
+            Set<String> attrs = ldUpUtils.returnAttributes(ObjectClass.ACCOUNT, new OperationOptionsBuilder().build());
+            assertTrue(attrs.containsAll(Set.of("cn", LdUpConstants.MEMBER_OF_ATTR_NAME)));
+            assertFalse(attrs.contains(ReturnAttributes.ALL_USER.value()[0]));
+        } finally {
+            ldUpUtils.dispose();
+        }
+    }
+
+    @Test
+    void groupIndex() throws InterruptedException {
+        OperationOptions options = new OperationOptionsBuilder().
+                setAttributesToGet(PredefinedAttributes.GROUPS_NAME).build();
+        Set<Object> expected = new HashSet<>(searchByAttribute(
+                newFacade(), ObjectClass.ACCOUNT, new Name(USER01_DN), options).orElseThrow().
+                getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue());
+        assertFalse(expected.isEmpty());
+
+        LdUpConfiguration config = newConfiguration();
+        config.setGroupIndex(true);
+        LdUpUtils ldUpUtils = new LdUpUtils(config);
+        try {
+            for (int i = 0; i < 50 && ldUpUtils.getGroupIndex().isEmpty(); i++) {
+                Thread.sleep(200);
+            }
+            assertTrue(ldUpUtils.getGroupIndex().isPresent());
+
+            ToListResultsHandler handler = new ToListResultsHandler();
+            new LdUpSearchOp(ldUpUtils).executeQuery(
+                    ObjectClass.ACCOUNT, LdUpFilter.forEntryDN(USER01_DN), handler, options);
+            assertEquals(1, handler.getObjects().size());
+            assertEquals(expected, new HashSet<>(
+                    handler.getObjects().get(0).getAttributeByName(PredefinedAttributes.GROUPS_NAME).getValue()));
+        } finally {
+            ldUpUtils.dispose();
+        }
+    }
+
     @Test
     void withFilter() {
         ConnectorFacade facade = newFacade();
@@ -202,6 +827,188 @@ class LdUpSearchOpTests extends AbstractLdUpConnectorTests {
         assertNull(object.getAttributeByName("givenName"));
     }
 
+    @Test
+    void binaryAndPasswordAttributesNotReturnedByDefault() {
+        ConnectorFacade facade = newFacade();
+        Set<AttributeInfo> attrInfos = facade.schema().
+                findObjectClassInfo(ObjectClass.ACCOUNT_NAME).getAttributeInfo();
+        assertFalse(AttributeInfoUtil.find("jpegPhoto", attrInfos).isReturnedByDefault());
+        assertFalse(AttributeInfoUtil.find("userCertificate", attrInfos).isReturnedByDefault());
+
+        // OpenLDAP defines no DIT content rules: all user attributes are asked for, then filtered
+        LdUpUtils ldUpUtils = new LdUpUtils(newConfiguration());
+        try {
+            assertTrue(ldUpUtils.getSchemaOp().returnedByDefault(ObjectClass.ACCOUNT).isEmpty());
+            Set<String> attrs = ldUpUtils.returnAttributes(ObjectClass.ACCOUNT, new OperationOptionsBuilder().build());
+            assertTrue(attrs.contains(ReturnAttributes.ALL_USER.value()[0]));
+            assertTrue(attrs.stream().noneMatch(attr -> "jpegPhoto".equalsIgnoreCase(attr)
+                    || "userCertificate".equalsIgnoreCase(attr)
+                    || "userPassword".equalsIgnoreCase(attr)));
+        } finally {
+            ldUpUtils.dispose();
+        }
+
+        ConnectorObject object = searchByAttribute(facade, ObjectClass.ACCOUNT, new Name(USER01_DN)).orElseThrow();
+        // inherited from person
+        assertNotNull(object.getAttributeByName("cn"));
+        assertNotNull(object.getAttributeByName("sn"));
+        assertNull(object.getAttributeByName("userPassword"));
+        assertNull(object.getAttributeByName(OperationalAttributes.PASSWORD_NAME));
+        assertNull(object.getAttributeByName("jpegPhoto"));
+    }
+
+    @Test
+    void auxiliaryClassAttributesReturnedByDefault() throws LdapException {
+        byte[] photo = { -4, -3, -2, -1, 0, 1, 2, 3, 63, 127 };
+
+        SingleConnectionFactory cf = singleConnectionFactory();
+        ModifyOperation modifyOp = ModifyOperation.builder().
+                factory(cf).
+                throwIf(ResultPredicate.NOT_SUCCESS).
+                build();
+        modifyOp.execute(ModifyRequest.builder().
+                dn(USER01_DN).
+                modifications(
+                        new AttributeModification(AttributeModification.Type.ADD,
+                                new LdapAttribute("objectClass", "shadowAccount")),
+                        new AttributeModification(AttributeModification.Type.ADD,
+                                new LdapAttribute("shadowLastChange", "19000")),
+                        new AttributeModification(AttributeModification.Type.ADD,
+                                new LdapAttribute("jpegPhoto", photo))).
+                build());
+        try {
+            ConnectorFacade facade = newFacade();
+
+            // from the auxiliary class, not known from the account object class
+            ConnectorObject object = searchByAttribute(facade, ObjectClass.ACCOUNT, new Name(USER01_DN)).orElseThrow();
+            assertEquals("19000", AttributeUtil.getStringValue(object.getAttributeByName("shadowLastChange")));
+            // binary values are still left out unless requested
+            assertNull(object.getAttributeByName("jpegPhoto"));
+
+            object = searchByAttribute(facade, ObjectClass.ACCOUNT, new Name(USER01_DN), "jpegPhoto").orElseThrow();
+            assertTrue(Arrays.equals(photo, (byte[]) object.getAttributeByName("jpegPhoto").getValue().get(0)));
+        } finally {
+            modifyOp.execute(ModifyRequest.builder().
+                    dn(USER01_DN).
+                    modifications(
+                            new AttributeModification(AttributeModification.Type.DELETE,
+                                    new LdapAttribute("jpegPhoto")),
+                            new AttributeModification(AttributeModification.Type.DELETE,
+                                    new LdapAttribute("shadowLastChange")),
+                            new AttributeModification(AttributeModification.Type.DELETE,
+                                    new LdapAttribute("objectClass", "shadowAccount"))).
+                    build());
+            cf.close();
+        }
+    }
+
+    @Test
+    void lazyBinary() throws LdapException {
+        byte[] photo = new byte[64];
+        Arrays.fill(photo, (byte) -1);
+
+        SingleConnectionFactory cf = singleConnectionFactory();
+        ModifyOperation modifyOp = ModifyOperation.builder().
+                factory(cf).
+                throwIf(ResultPredicate.NOT_SUCCESS).
+                build();
+        modifyOp.execute(ModifyRequest.builder().
+                dn(USER02_DN).
+                modifications(new AttributeModification(AttributeModification.Type.ADD,
+                        new LdapAttribute("jpegPhoto", photo))).
+                build());
+        try {
+            LdUpConfiguration config = newConfiguration();
+            config.setLazyBinaryThreshold(16);
+            ConnectorFacade facade = newFacade(config);
+            OperationOptions options = new OperationOptionsBuilder().setAttributesToGet("jpegPhoto").build();
+
+            // replaced by a reference when searching
+            ConnectorObject object = TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null, options).stream().
+                    filter(user -> USER02_DN.equalsIgnoreCase(user.getName().getNameValue())).
+                    findFirst().orElseThrow();
+            assertNull(object.getAttributeByName("jpegPhoto"));
+            assertEquals(
+                    List.of("jpegPhoto"), object.getAttributeByName(LdUpConstants.LAZY_BINARY_ATTR_NAME).getValue());
+
+            // read in full by the follow-up get
+            object = searchByAttribute(facade, ObjectClass.ACCOUNT, new Name(USER02_DN), "jpegPhoto").orElseThrow();
+            assertTrue(Arrays.equals(photo, (byte[]) object.getAttributeByName("jpegPhoto").getValue().get(0)));
+            assertNull(object.getAttributeByName(LdUpConstants.LAZY_BINARY_ATTR_NAME));
+
+            // not replaced when below the threshold
+            config.setLazyBinaryThreshold(photo.length);
+            object = TestHelpers.searchToList(newFacade(config), ObjectClass.ACCOUNT, null, options).stream().
+                    filter(user -> USER02_DN.equalsIgnoreCase(user.getName().getNameValue())).
+                    findFirst().orElseThrow();
+            assertTrue(Arrays.equals(photo, (byte[]) object.getAttributeByName("jpegPhoto").getValue().get(0)));
+        } finally {
+            modifyOp.execute(ModifyRequest.builder().
+                    dn(USER02_DN).
+                    modifications(new AttributeModification(AttributeModification.Type.DELETE,
+                            new LdapAttribute("jpegPhoto"))).
+                    build());
+            cf.close();
+        }
+    }
+
+    @Test
+    void passwordOnlyWhenRequested() {
+        ConnectorFacade facade = newFacade();
+
+        ConnectorObject object = searchByAttribute(
+                facade, ObjectClass.ACCOUNT, new Name(USER01_DN), "cn").orElseThrow();
+        assertNull(object.getAttributeByName(OperationalAttributes.PASSWORD_NAME));
+
+        object = searchByAttribute(
+                facade, ObjectClass.ACCOUNT, new Name(USER01_DN), "cn", OperationalAttributes.PASSWORD_NAME).
+                orElseThrow();
+        assertNotNull(AttributeUtil.getPasswordValue(object.getAttributes()));
+    }
+
+    @Test
+    void binaryOnlyWhenRequested() throws LdapException {
+        byte[] photo = { -4, -3, -2, -1, 0, 1, 2, 3, 63, 127 };
+
+        SingleConnectionFactory cf = singleConnectionFactory();
+        ModifyOperation modifyOp = ModifyOperation.builder().
+                factory(cf).
+                throwIf(ResultPredicate.NOT_SUCCESS).
+                build();
+        modifyOp.execute(ModifyRequest.builder().
+                dn(USER01_DN).
+                modifications(new AttributeModification(AttributeModification.Type.ADD,
+                        new LdapAttribute("jpegPhoto", photo))).
+                build());
+        try {
+            ConnectorFacade facade = newFacade();
+
+            // not requested explicitly: not even fetched
+            ConnectorObject bugs = TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null, null).
+                    stream().filter(object -> USER01_DN.equals(object.getName().getNameValue())).
+                    findFirst().orElseThrow();
+            assertNull(bugs.getAttributeByName("jpegPhoto"));
+
+            // requested explicitly: full values, also when searching for several entries
+            bugs = TestHelpers.searchToList(facade, ObjectClass.ACCOUNT, null,
+                    new OperationOptionsBuilder().setAttributesToGet("jpegPhoto").build()).
+                    stream().filter(object -> USER01_DN.equals(object.getName().getNameValue())).
+                    findFirst().orElseThrow();
+            assertTrue(Arrays.equals(photo, (byte[]) bugs.getAttributeByName("jpegPhoto").getValue().get(0)));
+
+            bugs = facade.getObject(ObjectClass.ACCOUNT, bugs.getUid(),
+                    new OperationOptionsBuilder().setAttributesToGet("jpegPhoto").build());
+            assertTrue(Arrays.equals(photo, (byte[]) bugs.getAttributeByName("jpegPhoto").getValue().get(0)));
+        } finally {
+            modifyOp.execute(ModifyRequest.builder().
+                    dn(USER01_DN).
+                    modifications(new AttributeModification(AttributeModification.Type.DELETE,
+                            new LdapAttribute("jpegPhoto"))).
+                    build());
+            cf.close();
+        }
+    }
+
     @Test
     void attributesToGetNotPresentInEntryAreEmpty() {
         ConnectorFacade facade = newFacade();